@@ -0,0 +1,28 @@
+package src;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Loads images from the train folder for benchmarks, scaled to vary the image size.
+ * Benchmarks must be run from the repository root.
+ */
+public class BenchmarkImages {
+
+    public static BufferedImage read(String imageName, double scale) throws IOException {
+        BufferedImage original = ImageHandler.readTrainImage(imageName);
+        int width = Math.max(1, (int) Math.round(original.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(original.getHeight() * scale));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(original, 0, 0, width, height, null);
+        graphics.dispose();
+        return scaled;
+    }
+
+    public static ImageHandler load(String imageName, double scale) throws IOException {
+        return new ImageHandler(imageName, read(imageName, scale));
+    }
+}
@@ -0,0 +1,91 @@
+package src;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work done per offspring: decoding, the three segment objectives and crossover
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecodingBenchmark {
+    @Param({"118035", "86016"})
+    public String imageName;
+    @Param({"0.5", "1", "2"})
+    public double scale;
+    @Param({"20"})
+    public int numSegments;
+    // Random gene mutations after cutting the minimal span tree, to get irregular segments like later generations
+    @Param({"500"})
+    public int numMutations;
+
+    private final Random rand = new Random(42);
+    private ImageHandler image;
+    private GenAlg ga;
+    private Individual parentA, parentB;
+    private List<Segment> segments;
+
+    @Setup
+    public void setup() throws IOException {
+        image = BenchmarkImages.load(imageName, scale);
+        ga = new GenAlg(image);
+        parentA = createIndividual();
+        parentB = createIndividual();
+        segments = parentA.getSegments();
+    }
+
+    private Individual createIndividual() {
+        Individual individual = new Individual(image, numSegments);
+        for (int i = 0; i < numMutations; i++) {
+            int index = rand.nextInt(image.getNumPixels());
+            Gene[] legalGenes = image.getValidGenes(index);
+            individual.mutateGene(index, legalGenes[rand.nextInt(legalGenes.length)]);
+        }
+        return individual;
+    }
+
+    @Benchmark
+    public Individual createSegments() {
+        return new Individual(image, parentA.getGenotype().clone());
+    }
+
+    @Benchmark
+    public double computeEdgeValue() {
+        double edgeValue = 0;
+        for (Segment segment : segments) {
+            edgeValue += segment.computeEdgeValue();
+        }
+        return edgeValue;
+    }
+
+    @Benchmark
+    public double computeConnectivity() {
+        double connectivity = 0;
+        for (Segment segment : segments) {
+            connectivity += segment.computeConnectivity();
+        }
+        return connectivity;
+    }
+
+    @Benchmark
+    public double computeDeviation() {
+        double deviation = 0;
+        for (Segment segment : segments) {
+            deviation += segment.computeDeviation();
+        }
+        return deviation;
+    }
+
+    @Benchmark
+    public Pair<Individual, Individual> crossover() {
+        return ga.crossover(parentA, parentB, rand);
+    }
+}
@@ -0,0 +1,45 @@
+package src;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading an image: CieLab conversion and ImageHandler construction
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImageBenchmark {
+    @Param({"118035", "86016"})
+    public String imageName;
+    @Param({"0.5", "1", "2"})
+    public double scale;
+
+    private BufferedImage image;
+    private int[] rgb;
+
+    @Setup
+    public void setup() throws IOException {
+        image = BenchmarkImages.read(imageName, scale);
+        rgb = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Benchmark
+    public void cieLabFromRGB(Blackhole blackhole) {
+        for (int color : rgb) {
+            blackhole.consume(CieLab.fromRGB((color >> 16) & 0xFF, (color >> 8) & 0xFF, color & 0xFF));
+        }
+    }
+
+    @Benchmark
+    public ImageHandler imageHandler() {
+        return new ImageHandler(imageName, image);
+    }
+}
@@ -0,0 +1,126 @@
+package src;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranking and crowding distance, which only depend on the population size.
+ * Individuals are made from a small thumbnail so large populations fit in memory.
+ * NonDominatedSorter is also timed on the objectives alone against the previous ranking, which repeatedly removed
+ * the non-dominated set from the population, and setup checks that both give the same ranks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PopulationBenchmark {
+    @Param({"40", "1000", "10000"})
+    public int popSize;
+
+    private GenAlg ga;
+    private List<Individual> population;
+    private double[][] objectives;
+
+    @Setup
+    public void setup() throws IOException {
+        Random rand = new Random(42);
+        ImageHandler image = BenchmarkImages.load("118035", 0.2);
+        ga = new GenAlg(image);
+        population = new ArrayList<>();
+        for (int i = 0; i < popSize; i++) {
+            Individual individual = new Individual(image, 1 + rand.nextInt(60));
+            int numMutations = rand.nextInt(100);
+            for (int j = 0; j < numMutations; j++) {
+                int index = rand.nextInt(image.getNumPixels());
+                Gene[] legalGenes = image.getValidGenes(index);
+                individual.mutateGene(index, legalGenes[rand.nextInt(legalGenes.length)]);
+            }
+            population.add(individual);
+        }
+        objectives = new double[popSize][];
+        for (int i = 0; i < popSize; i++) {
+            objectives[i] = new double[Objective.values().length];
+            for (Objective objective : Objective.values()) {
+                objectives[i][objective.ordinal()] = population.get(i).getObjectiveValue(objective);
+            }
+        }
+        if (!Arrays.equals(NonDominatedSorter.rank(objectives), previousRank(objectives))) {
+            throw new IllegalStateException("Ranks differ for population size " + popSize);
+        }
+    }
+
+    @Benchmark
+    public List<List<Individual>> rankPopulation() {
+        return ga.rankPopulation(population);
+    }
+
+    @Benchmark
+    public List<Individual> assignCrowdingDistance() {
+        ga.assignCrowdingDistance(population);
+        return population;
+    }
+
+    @Benchmark
+    public int[] nonDominatedSort() {
+        return NonDominatedSorter.rank(objectives);
+    }
+
+    @Benchmark
+    public int[] previousNonDominatedSort() {
+        return previousRank(objectives);
+    }
+
+    /**
+     * The ranking GenAlg.rankPopulation used before NonDominatedSorter, on indices instead of individuals
+     */
+    private static int[] previousRank(double[][] objectives) {
+        int[] ranks = new int[objectives.length];
+        List<Integer> population = new ArrayList<>();
+        for (int i = 0; i < objectives.length; i++) {
+            population.add(i);
+        }
+        int currentRank = 1;
+        while (population.size() > 0) {
+            List<Integer> dominatingSet = findDominatingSet(objectives, population);
+            for (int i : dominatingSet) {
+                ranks[i] = currentRank;
+            }
+            population.removeAll(dominatingSet);
+            currentRank++;
+        }
+        return ranks;
+    }
+
+    private static List<Integer> findDominatingSet(double[][] objectives, List<Integer> population) {
+        List<Integer> nonDominatedList = new ArrayList<>();
+        Set<Integer> dominatedSet = new HashSet<>();
+        for (int individual : population) {
+            if (dominatedSet.contains(individual)) {
+                continue;
+            }
+            nonDominatedList.add(individual);
+            for (int nonDominatedInd : nonDominatedList) {
+                if (dominatedSet.contains(individual) || nonDominatedInd == individual) {
+                    continue;
+                } else if (NonDominatedSorter.dominates(objectives[individual], objectives[nonDominatedInd])) {
+                    dominatedSet.add(nonDominatedInd);
+                } else if (NonDominatedSorter.dominates(objectives[nonDominatedInd], objectives[individual])) {
+                    dominatedSet.add(individual);
+                    break;
+                }
+            }
+        }
+        nonDominatedList.removeAll(dominatedSet);
+        return nonDominatedList;
+    }
+}
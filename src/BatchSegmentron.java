@@ -0,0 +1,122 @@
+package src;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Segments every image directory under the train directory in one JVM, e.g. train/118035/Test image.jpg.
+ * Params.batchConcurrentImages GA runs share one pool of Params.threadPoolSize workers. The largest images are
+ * started first, so a large image is never left running alone at the end of the batch.
+ * Usage: BatchSegmentron [train directory]
+ */
+public class BatchSegmentron {
+
+    private static final String imageFileName = "Test image.jpg";
+
+    public static void main(String[] args) {
+        File trainDirectory = new File(args.length > 0 ? args[0] : Params.trainDirectory);
+        File[] directories = trainDirectory.listFiles(directory -> new File(directory, imageFileName).isFile());
+        if (directories == null) {
+            System.out.println("Not a directory: " + trainDirectory);
+            return;
+        }
+        // Reading the image sizes only decodes the headers
+        Map<File, Long> numPixels = new HashMap<>();
+        for (File directory : directories) {
+            numPixels.put(directory, readNumPixels(new File(directory, imageFileName)));
+        }
+        List<File> largestFirst = new ArrayList<>(numPixels.keySet());
+        largestFirst.sort(Comparator.comparingLong((File directory) -> numPixels.get(directory)).reversed()
+                .thenComparing(File::getName));
+        System.out.printf("Segmenting %d images from %s%n", largestFirst.size(), trainDirectory);
+
+        ExecutorService workers = Executors.newFixedThreadPool(Params.threadPoolSize);
+        // GA runs only wait on their workers, so they get their own threads and never block a worker
+        ExecutorService runs = Executors.newFixedThreadPool(Params.batchConcurrentImages);
+        long startTime = System.nanoTime();
+        List<CompletableFuture<ImageSummary>> summaries = new ArrayList<>();
+        for (File directory : largestFirst) {
+            summaries.add(CompletableFuture.supplyAsync(() -> segment(directory, workers), runs));
+        }
+        List<ImageSummary> results = new ArrayList<>();
+        for (CompletableFuture<ImageSummary> summary : summaries) {
+            results.add(summary.join());
+        }
+        runs.shutdown();
+        workers.shutdown();
+
+        System.out.println("Batch summary:");
+        System.out.printf("%-20s %9s %8s %8s %10s  %s%n", "image", "size", "time (s)", "fronts", "front size", "segments");
+        for (ImageSummary result : results) {
+            System.out.println(result);
+        }
+        System.out.printf("Segmented %d images in %.1f s%n", results.size(), (System.nanoTime() - startTime) / 1e9);
+    }
+
+    /**
+     * Segments the image of one directory. Failures are reported in the summary, so the rest of the batch goes on.
+     */
+    private static ImageSummary segment(File directory, ExecutorService workers) {
+        long startTime = System.nanoTime();
+        try {
+            ImageHandler image = new ImageHandler(directory.getName(),
+                    ImageHandler.readImage(new File(directory, imageFileName)));
+            List<List<Individual>> rankedPopulation = Segmentron2000.segmentImage(image, workers);
+            return new ImageSummary(directory.getName(), image.getWidth(), image.getHeight(),
+                    System.nanoTime() - startTime, rankedPopulation, null);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return new ImageSummary(directory.getName(), 0, 0, System.nanoTime() - startTime, List.of(), e);
+        }
+    }
+
+    /**
+     * @return number of pixels of the image, or 0 if it can't be read
+     */
+    private static long readNumPixels(File file) {
+        try {
+            Dimension size = ImageHandler.readImageSize(file);
+            return (long) size.width * size.height;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Timing and result of the GA run on one image
+     */
+    private static class ImageSummary {
+        private final String name;
+        private final int width, height;
+        private final long nanos;
+        private final List<List<Individual>> rankedPopulation;
+        private final Exception error;
+
+        private ImageSummary(String name, int width, int height, long nanos,
+                             List<List<Individual>> rankedPopulation, Exception error) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.nanos = nanos;
+            this.rankedPopulation = rankedPopulation;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            String size = width + "x" + height;
+            if (error != null) {
+                return "%-20s %9s %8.1f  failed: %s".formatted(name, size, nanos / 1e9, error);
+            }
+            List<Individual> paretoFront = rankedPopulation.isEmpty() ? List.of() : rankedPopulation.get(0);
+            IntSummaryStatistics segments = paretoFront.stream().mapToInt(Individual::getNumSegments).summaryStatistics();
+            return "%-20s %9s %8.1f %8d %10d  %s".formatted(name, size, nanos / 1e9, rankedPopulation.size(),
+                    paretoFront.size(), paretoFront.isEmpty() ? "-" : segments.getMin() + "-" + segments.getMax());
+        }
+    }
+}
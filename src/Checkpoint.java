@@ -0,0 +1,179 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * GA state saved between generations, so a run can be resumed.
+ * The file is a header followed by one fixed size record per individual: its objective values, rank, crowding
+ * distance and genotype, packed as three base 5 genes per byte.
+ */
+public class Checkpoint {
+    private static final int magic = 0x5347434B; // "SGCK"
+    private static final int version = 1;
+    private static final int headerSize = 4 + 4 + 4 + 4 + 8 + 4 + 4;
+    private static final int genesPerByte = 3;
+
+    private final long seed;
+    private final int generation;
+    private final List<Individual> population;
+    // Copied when the checkpoint is made, as the next generation ranks the same individuals while it is written
+    private final int[] ranks;
+    private final double[] crowdingDistances;
+
+    public Checkpoint(long seed, int generation, List<Individual> population) {
+        this.seed = seed;
+        this.generation = generation;
+        this.population = population;
+        this.ranks = population.stream().mapToInt(Individual::getRank).toArray();
+        this.crowdingDistances = population.stream().mapToDouble(Individual::getCrowdingDistance).toArray();
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file that then replaces file, so an interrupted write leaves the
+     * previous checkpoint intact. Genotypes of the population must not be modified while writing.
+     */
+    public void write(Path file, ImageHandler image) throws IOException {
+        int packedLength = packedLength(image.getNumPixels());
+        int recordSize = recordSize(packedLength);
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + population.size() * recordSize);
+        buffer.putInt(magic).putInt(version)
+                .putInt(image.getWidth()).putInt(image.getHeight())
+                .putLong(seed).putInt(generation).putInt(population.size());
+        byte[] packed = new byte[packedLength];
+        for (int i = 0; i < population.size(); i++) {
+            Individual individual = population.get(i);
+            buffer.putDouble(individual.getEdgeValue())
+                    .putDouble(individual.getConnectivity())
+                    .putDouble(individual.getDeviation())
+                    .putInt(ranks[i])
+                    .putDouble(crowdingDistances[i]);
+            pack(individual.getGenotype(), packed);
+            buffer.put(packed);
+        }
+        buffer.flip();
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint through a memory mapping, and decodes its individuals on the executor
+     *
+     * @param file checkpoint written by write
+     * @param image the image the checkpoint was made for
+     * @param executor executor decoding the individuals
+     */
+    public static Checkpoint read(Path file, ImageHandler image, Executor executor) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt() != magic || buffer.getInt() != version) {
+            throw new IOException(file + " is not a checkpoint of this version");
+        }
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        if (width != image.getWidth() || height != image.getHeight()) {
+            throw new IOException("Checkpoint is of a %dx%d image, not %dx%d"
+                    .formatted(width, height, image.getWidth(), image.getHeight()));
+        }
+        long seed = buffer.getLong();
+        int generation = buffer.getInt();
+        int populationSize = buffer.getInt();
+
+        int packedLength = packedLength(image.getNumPixels());
+        int recordSize = recordSize(packedLength);
+        List<CompletableFuture<Individual>> individuals = new ArrayList<>();
+        for (int i = 0; i < populationSize; i++) {
+            int offset = headerSize + i * recordSize;
+            individuals.add(CompletableFuture.supplyAsync(() -> readIndividual(buffer, offset, image), executor));
+        }
+        List<Individual> population = new ArrayList<>();
+        for (CompletableFuture<Individual> individual : individuals) {
+            population.add(individual.join());
+        }
+        return new Checkpoint(seed, generation, population);
+    }
+
+    private static Individual readIndividual(ByteBuffer buffer, int offset, ImageHandler image) {
+        double edgeValue = buffer.getDouble(offset);
+        double connectivity = buffer.getDouble(offset + 8);
+        double deviation = buffer.getDouble(offset + 16);
+        int rank = buffer.getInt(offset + 24);
+        double crowdingDistance = buffer.getDouble(offset + 28);
+        byte[] packed = new byte[packedLength(image.getNumPixels())];
+        buffer.get(offset + 36, packed);
+
+        Individual individual = new Individual(image, unpack(packed, image.getNumPixels()));
+        individual.setRank(rank);
+        individual.setCrowdingDistance(crowdingDistance);
+        if (individual.getEdgeValue() != edgeValue || individual.getConnectivity() != connectivity
+                || Math.abs(individual.getDeviation() - deviation) > 1e-6 * Math.abs(deviation)) {
+            System.out.println("Objective values of checkpointed individual changed when decoded");
+        }
+        return individual;
+    }
+
+    static int packedLength(int numGenes) {
+        return (numGenes + genesPerByte - 1) / genesPerByte;
+    }
+
+    private static int recordSize(int packedLength) {
+        return 3 * 8 + 4 + 8 + packedLength;
+    }
+
+    static void pack(byte[] genotype, byte[] packed) {
+        for (int i = 0; i < packed.length; i++) {
+            int code = 0;
+            for (int j = Math.min(genesPerByte, genotype.length - genesPerByte * i) - 1; j >= 0; j--) {
+                code = code * 5 + genotype[genesPerByte * i + j];
+            }
+            packed[i] = (byte) code;
+        }
+    }
+
+    static byte[] unpack(byte[] packed, int numGenes) {
+        byte[] genotype = new byte[numGenes];
+        for (int i = 0; i < numGenes; i++) {
+            int code = packed[i / genesPerByte] & 0xFF;
+            for (int j = 0; j < i % genesPerByte; j++) {
+                code /= 5;
+            }
+            genotype[i] = (byte) (code % 5);
+        }
+        return genotype;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return the next generation to run
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    public List<Individual> getPopulation() {
+        return population;
+    }
+}
@@ -1,5 +1,6 @@
 package src;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 public class CieLab {
@@ -13,7 +14,90 @@ public class CieLab {
         this.b = b;
     }
 
+    // Linear value of each 8-bit sRGB channel value, the first step of fromRGB
+    private static final float[] linearized = createLinearizationTable();
+
+    private static float[] createLinearizationTable() {
+        float[] table = new float[256];
+        for (int i = 0; i < 256; i++) {
+            float c = i / 255.f; // 0..1
+            // assuming sRGB (D65)
+            if (c <= 0.04045)
+                c = c / 12;
+            else
+                c = (float) Math.pow((c + 0.055) / 1.055, 2.4);
+            table[i] = c;
+        }
+        return table;
+    }
+
+    // Cube roots of 0..1 in cubeRootSteps steps, the start of cubeRoot
+    private static final int cubeRootSteps = 1024;
+    private static final double[] cubeRoots = createCubeRootTable();
+
+    private static double[] createCubeRootTable() {
+        double[] table = new double[cubeRootSteps + 1];
+        for (int i = 0; i <= cubeRootSteps; i++) {
+            table[i] = Math.cbrt((double) i / cubeRootSteps);
+        }
+        return table;
+    }
+
+    /**
+     * Cube root of x above the Lab threshold eps, for the Lab function f(t). Interpolates the table, then two Newton
+     * steps bring it to double precision, so the quantised Lab values are the same as with Math.pow for every color.
+     */
+    private static double cubeRoot(double x) {
+        if (x >= 1) {
+            return Math.pow(x, 1 / 3.); // Brighter than the reference white, rare
+        }
+        double position = x * cubeRootSteps;
+        int i = (int) position;
+        double y = cubeRoots[i] + (cubeRoots[i + 1] - cubeRoots[i]) * (position - i);
+        y -= (y * y * y - x) / (3 * y * y);
+        y -= (y * y * y - x) / (3 * y * y);
+        return y;
+    }
+
     public static CieLab fromRGB(int R, int G, int B) {
+        return fromLinearRGB(linearized[R], linearized[G], linearized[B]);
+    }
+
+    /**
+     * Converts packed 0xRRGGBB colors, giving the same values as fromRGB.
+     * Images have far fewer distinct colors than pixels, and neighboring pixels often share colors, so results are
+     * memoised by color in a direct-mapped cache. The cube roots in the conversion then run once per color instead
+     * of once per pixel.
+     *
+     * @param rgb packed colors, alpha is ignored
+     * @param l output L of each color, same length as rgb
+     * @param a output a of each color
+     * @param b output b of each color
+     */
+    public static void fromRGB(int[] rgb, float[] l, float[] a, float[] b) {
+        int cacheSize = 1 << 16;
+        int[] cachedColors = new int[cacheSize];
+        Arrays.fill(cachedColors, -1); // Not a valid color, as alpha is masked away
+        float[] cachedL = new float[cacheSize];
+        float[] cachedA = new float[cacheSize];
+        float[] cachedB = new float[cacheSize];
+        for (int i = 0; i < rgb.length; i++) {
+            int color = rgb[i] & 0xFFFFFF;
+            int slot = (color ^ (color >>> 16) * 0x9E37) & (cacheSize - 1);
+            if (cachedColors[slot] != color) {
+                CieLab lab = fromRGB((color >> 16) & 0xFF, (color >> 8) & 0xFF, color & 0xFF);
+                cachedColors[slot] = color;
+                cachedL[slot] = lab.l;
+                cachedA[slot] = lab.a;
+                cachedB[slot] = lab.b;
+            }
+            l[i] = cachedL[slot];
+            a[i] = cachedA[slot];
+            b[i] = cachedB[slot];
+        }
+    }
+
+    private static CieLab fromLinearRGB(float r, float g, float b) {
         // Stolen from http://www.brucelindbloom.com
         float eps = 216.f / 24389.f;
         float k = 24389.f / 27.f;
@@ -23,26 +107,6 @@ public class CieLab {
         float Zr = 0.825211f;
 
         // RGB to XYZ
-        float r = R / 255.f; //R 0..1
-        float g = G / 255.f; //G 0..1
-        float b = B / 255.f; //B 0..1
-
-        // assuming sRGB (D65)
-        if (r <= 0.04045)
-            r = r / 12;
-        else
-            r = (float) Math.pow((r + 0.055) / 1.055, 2.4);
-
-        if (g <= 0.04045)
-            g = g / 12;
-        else
-            g = (float) Math.pow((g + 0.055) / 1.055, 2.4);
-
-        if (b <= 0.04045)
-            b = b / 12;
-        else
-            b = (float) Math.pow((b + 0.055) / 1.055, 2.4);
-
         float X = 0.436052025f * r + 0.385081593f * g + 0.143087414f * b;
         float Y = 0.222491598f * r + 0.71688606f * g + 0.060621486f * b;
         float Z = 0.013929122f * r + 0.097097002f * g + 0.71418547f * b;
@@ -54,17 +118,17 @@ public class CieLab {
 
         float fx, fy, fz;
         if (xr > eps)
-            fx = (float) Math.pow(xr, 1 / 3.);
+            fx = (float) cubeRoot(xr);
         else
             fx = (float) ((k * xr + 16.) / 116.);
 
         if (yr > eps)
-            fy = (float) Math.pow(yr, 1 / 3.);
+            fy = (float) cubeRoot(yr);
         else
             fy = (float) ((k * yr + 16.) / 116.);
 
         if (zr > eps)
-            fz = (float) Math.pow(zr, 1 / 3.);
+            fz = (float) cubeRoot(zr);
         else
             fz = (float) ((k * zr + 16.) / 116);
 
@@ -103,10 +167,17 @@ public class CieLab {
      * @return distance
      */
     public static double computeDistance(CieLab one, CieLab two) {
+        return computeDistance(one.l, one.a, one.b, two.l, two.a, two.b);
+    }
+
+    /**
+     * Same as computeDistance(CieLab, CieLab), but on raw channel values
+     */
+    public static double computeDistance(float l1, float a1, float b1, float l2, float a2, float b2) {
         return Math.sqrt(
-                Math.pow(one.l - two.l, 2)
-                        + Math.pow(one.a - two.a, 2)
-                        + Math.pow(one.b - two.b, 2)
+                Math.pow(l1 - l2, 2)
+                        + Math.pow(a1 - a2, 2)
+                        + Math.pow(b1 - b2, 2)
         );
     }
 }
@@ -0,0 +1,43 @@
+package src;
+
+import java.util.Locale;
+
+/**
+ * Prints one line of progress for each generation, e.g.
+ * "Generation 3: 210.4 ms, 190 offspring/s, 7.5% serial, 9.87 ms decode per offspring, 25.0% cache hits,
+ * first front 12 of 9 fronts, hypervolume 0.8123 stagnant for 2, 1.7 MB stored, 61.20% ground truth"
+ */
+public class ConsoleListener implements GenerationListener {
+
+    @Override
+    public void onGeneration(GenerationMetrics metrics) {
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "Generation %d: %.1f ms, %.0f offspring/s",
+                metrics.getGeneration(), metrics.getGenerationNanos() / 1e6, metrics.getOffspringPerSecond()));
+        if (metrics.getSerialNanos() > 0) {
+            line.append(String.format(Locale.ROOT, ", %.1f%% serial",
+                    100.0 * metrics.getSerialNanos() / metrics.getGenerationNanos()));
+        }
+        if (metrics.getNumOffspring() > 0) {
+            line.append(String.format(Locale.ROOT, ", %.2f ms decode per offspring",
+                    metrics.getDecodeNanos() / 1e6 / metrics.getNumOffspring()));
+        }
+        if (metrics.getCacheHits() + metrics.getCacheMisses() > 0) { // No lookups without a fitness cache
+            line.append(String.format(Locale.ROOT, ", %.1f%% cache hits", 100 * metrics.getCacheHitRate()));
+        }
+        int[] frontSizes = metrics.getFrontSizes();
+        if (frontSizes.length > 0) { // runGA does not rank its population
+            line.append(String.format(Locale.ROOT, ", first front %d of %d fronts", frontSizes[0], frontSizes.length));
+        }
+        if (!Double.isNaN(metrics.getHypervolume())) {
+            line.append(String.format(Locale.ROOT, ", hypervolume %.4f stagnant for %d", metrics.getHypervolume(),
+                    metrics.getStagnantGenerations()));
+        }
+        if (metrics.getStoredBytes() > 0) {
+            line.append(String.format(Locale.ROOT, ", %.1f MB stored", metrics.getStoredBytes() / 1e6));
+        }
+        if (!Double.isNaN(metrics.getGroundTruthScore())) {
+            line.append(String.format(Locale.ROOT, ", %.2f%% ground truth", 100 * metrics.getGroundTruthScore()));
+        }
+        System.out.println(line);
+    }
+}
@@ -0,0 +1,9 @@
+package src;
+
+/**
+ * What ConvergenceMonitor watches for the first front to stop improving
+ */
+public enum ConvergenceMeasure {
+    HYPERVOLUME, // Volume of objective space dominated by the front, the best seen so far must grow
+    OBJECTIVE_RANGES // Lowest and highest value of each objective on the front, any of them must move
+}
@@ -0,0 +1,143 @@
+package src;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Tracks whether the first front of runGA2 is still improving, by the convergenceMeasure of a GAConfig.
+ * Objectives are normalized by the initial population, so all three weigh the same however they are scaled: its
+ * lowest value of each objective maps to 0, and a reference point 10% beyond its highest value maps to 1.
+ * A generation is stagnant if the measure changes by less than stagnationTolerance in these units, and the front has
+ * converged after stagnationGenerations stagnant generations in a row.
+ */
+public class ConvergenceMonitor {
+    private static final double referenceMargin = 0.1;
+
+    private final ConvergenceMeasure measure;
+    private final double tolerance;
+    private final int patience; // Stagnant generations until converged, 0 to never converge
+    private final double[] lowest = new double[Objective.values().length];
+    private final double[] scales = new double[Objective.values().length];
+    private double hypervolume;
+    private double bestHypervolume;
+    private double[] bounds; // Lowest then highest normalized value of each objective on the last front
+    private int stagnantGenerations;
+
+    /**
+     * @param initialPopulation population the objectives are normalized by
+     */
+    public ConvergenceMonitor(List<Individual> initialPopulation, GAConfig config) {
+        this.measure = config.getConvergenceMeasure();
+        this.tolerance = config.getStagnationTolerance();
+        this.patience = config.getStagnationGenerations();
+        for (Objective objective : Objective.values()) {
+            double min = initialPopulation.stream().mapToDouble(i -> i.getObjectiveValue(objective)).min().orElse(0);
+            double max = initialPopulation.stream().mapToDouble(i -> i.getObjectiveValue(objective)).max().orElse(0);
+            lowest[objective.ordinal()] = min;
+            double scale = (max - min) * (1 + referenceMargin);
+            scales[objective.ordinal()] = scale > 0 ? scale : 1;
+        }
+        // Dominated individuals add no volume, so the whole population gives the hypervolume of its front
+        this.hypervolume = hypervolume(normalize(initialPopulation));
+        this.bestHypervolume = hypervolume;
+    }
+
+    /**
+     * Measures the first front of a generation
+     */
+    public void update(List<Individual> front) {
+        double[][] points = normalize(front);
+        hypervolume = hypervolume(points);
+        boolean improved;
+        if (measure == ConvergenceMeasure.HYPERVOLUME) {
+            improved = hypervolume - bestHypervolume > tolerance;
+            bestHypervolume = Math.max(bestHypervolume, hypervolume);
+        } else {
+            double[] newBounds = bounds(points);
+            improved = bounds == null;
+            for (int i = 0; !improved && i < newBounds.length; i++) {
+                improved = Math.abs(newBounds[i] - bounds[i]) > tolerance;
+            }
+            bounds = newBounds;
+        }
+        stagnantGenerations = improved ? 0 : stagnantGenerations + 1;
+    }
+
+    public boolean hasConverged() {
+        return patience > 0 && stagnantGenerations >= patience;
+    }
+
+    /**
+     * @return normalized hypervolume of the last front, 1 for a single point at the lowest values of the initial
+     * population
+     */
+    public double getHypervolume() {
+        return hypervolume;
+    }
+
+    public int getStagnantGenerations() {
+        return stagnantGenerations;
+    }
+
+    private double[][] normalize(List<Individual> individuals) {
+        double[][] points = new double[individuals.size()][Objective.values().length];
+        for (int i = 0; i < points.length; i++) {
+            for (Objective objective : Objective.values()) {
+                int k = objective.ordinal();
+                points[i][k] = (individuals.get(i).getObjectiveValue(objective) - lowest[k]) / scales[k];
+            }
+        }
+        return points;
+    }
+
+    private static double[] bounds(double[][] points) {
+        int numObjectives = Objective.values().length;
+        double[] bounds = new double[2 * numObjectives];
+        Arrays.fill(bounds, 0, numObjectives, Double.POSITIVE_INFINITY);
+        Arrays.fill(bounds, numObjectives, bounds.length, Double.NEGATIVE_INFINITY);
+        for (double[] point : points) {
+            for (int k = 0; k < numObjectives; k++) {
+                bounds[k] = Math.min(bounds[k], point[k]);
+                bounds[numObjectives + k] = Math.max(bounds[numObjectives + k], point[k]);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Volume dominated by three objective points, all minimized, up to the reference point (1, 1, 1).
+     * Sums slabs between consecutive values of the last objective, each the area dominated by the points below it.
+     */
+    static double hypervolume(double[][] points) {
+        double[][] inside = Arrays.stream(points)
+                .filter(point -> point[0] < 1 && point[1] < 1 && point[2] < 1)
+                .sorted(Comparator.comparingDouble(point -> point[2]))
+                .toArray(double[][]::new);
+        double volume = 0;
+        for (int i = 0; i < inside.length; i++) {
+            double nextZ = i + 1 < inside.length ? inside[i + 1][2] : 1;
+            if (nextZ > inside[i][2]) {
+                volume += area(Arrays.copyOf(inside, i + 1)) * (nextZ - inside[i][2]);
+            }
+        }
+        return volume;
+    }
+
+    /**
+     * Area dominated by points in the first two objectives, up to (1, 1)
+     */
+    private static double area(double[][] points) {
+        Arrays.sort(points, Comparator.<double[]>comparingDouble(point -> point[0])
+                .thenComparingDouble(point -> point[1]));
+        double area = 0;
+        double y = 1; // Lowest second objective of the points so far
+        for (double[] point : points) {
+            if (point[1] < y) {
+                area += (1 - point[0]) * (y - point[1]);
+                y = point[1];
+            }
+        }
+        return area;
+    }
+}
@@ -2,15 +2,16 @@ package src;
 
 /**
  * src.Edge between two neighboring pixels, used to compare color differences as described in the paper
+ * Pixels are referred to by their genotype index
  */
 public class Edge implements Comparable<Edge>{
-    public Pixel from, to;
+    public int from, to;
     public double distance;
 
-    public Edge(Pixel from, Pixel to){
+    public Edge(int from, int to, double distance){
         this.from = from;
         this.to = to;
-        this.distance = CieLab.computeDistance(from.color, to.color);
+        this.distance = distance;
     }
 
     @Override
@@ -0,0 +1,54 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decoded individuals by genotype hash, so offspring whose genotype was seen before are copied instead of decoded.
+ * Holds at most capacity individuals, evicting the oldest first.
+ * Lookups are safe from any thread. Individuals are only added between generations, in the order they were
+ * produced, so whether a lookup hits does not depend on thread timing and seeded runs stay reproducible.
+ */
+public class FitnessCache {
+    private final int capacity;
+    private final Map<Long, Individual> individuals = new ConcurrentHashMap<>();
+    private final Queue<Long> insertionOrder = new ArrayDeque<>();
+
+    public FitnessCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param hash hash of genotype, see GenotypeHash
+     * @return a new copy of the cached individual with the same genotype, or null if there is none
+     */
+    public Individual get(long hash, byte[] genotype) {
+        Individual cached = individuals.get(hash);
+        // Distinct genotypes may share a hash, so the genotype is compared too
+        if (cached == null || !Arrays.equals(cached.getGenotype(), genotype)) {
+            return null;
+        }
+        return new Individual(cached);
+    }
+
+    /**
+     * Adds a decoded individual, which must not be modified afterwards. Must not be called during lookups.
+     */
+    public void put(Individual individual) {
+        long hash = individual.getGenotypeHash();
+        if (individuals.putIfAbsent(hash, individual) != null) {
+            return;
+        }
+        insertionOrder.add(hash);
+        if (insertionOrder.size() > capacity) {
+            individuals.remove(insertionOrder.remove());
+        }
+    }
+
+    public int size() {
+        return individuals.size();
+    }
+}
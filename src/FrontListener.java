@@ -0,0 +1,12 @@
+package src;
+
+/**
+ * Receives the first pareto-front after each generation of a GenAlg, see GenAlg.addFrontListener.
+ * Unlike a GenerationListener, it runs on an executor of its own and never delays the GA. A listener that is still
+ * busy when fronts are published only receives the latest of them once it is done.
+ */
+@FunctionalInterface
+public interface FrontListener {
+
+    void onFront(ParetoFrontSnapshot front);
+}
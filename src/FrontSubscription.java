@@ -0,0 +1,46 @@
+package src;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Delivers fronts to a FrontListener on its executor, one at a time. A front published while the listener is busy
+ * waits, replacing any front that was waiting before it, so a slow listener skips fronts instead of queueing them.
+ */
+class FrontSubscription {
+    private final FrontListener listener;
+    private final Executor executor;
+    private final AtomicReference<ParetoFrontSnapshot> pending = new AtomicReference<>();
+
+    FrontSubscription(FrontListener listener, Executor executor) {
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns right away, the front is delivered on the executor
+     */
+    void publish(ParetoFrontSnapshot front) {
+        // Only the publish that finds nothing pending starts a delivery, later ones replace the pending front
+        if (pending.getAndSet(front) == null) {
+            executor.execute(this::deliver);
+        }
+    }
+
+    private void deliver() {
+        ParetoFrontSnapshot front = pending.get();
+        try {
+            listener.onFront(front);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        // A front published during onFront is delivered next
+        if (!pending.compareAndSet(front, null)) {
+            executor.execute(this::deliver);
+        }
+    }
+
+    FrontListener getListener() {
+        return listener;
+    }
+}
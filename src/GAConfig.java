@@ -0,0 +1,273 @@
+package src;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Parameters of one GenAlg run, so runs with different settings can share a JVM, see ParameterSweep.
+ * Each parameter is named after its Params constant, which is its default. Parameters are given as name=value,
+ * in a properties file or on the command line. Everything else, e.g. the image, output and objective weights, stays
+ * in Params.
+ */
+public class GAConfig {
+    private final Properties values; // Parameters that differ from Params, by name
+    private final Set<String> names = new HashSet<>(); // Names of all parameters, collected while they are parsed
+
+    private final int numGenerations;
+    private final int popSize;
+    private final int parentSelectionSize;
+    private final double tournamentProb;
+    private final double crossoverProb;
+    private final double mutationProb;
+    private final double mutationMergeProb;
+    private final boolean pipelineGenerations;
+    private final long seed;
+    private final int fitnessCacheSize;
+    private final int stagnationGenerations;
+    private final double stagnationTolerance;
+    private final ConvergenceMeasure convergenceMeasure;
+    private final double timeBudgetSeconds;
+    private final int evaluationBudget;
+
+    private GAConfig(Properties values) {
+        this.values = values;
+        this.numGenerations = getInt("numGenerations", Params.numGenerations);
+        this.popSize = getInt("popSize", Params.popSize);
+        this.parentSelectionSize = getInt("parentSelectionSize", Params.parentSelectionSize);
+        this.tournamentProb = getDouble("tournamentProb", Params.tournamentProb);
+        this.crossoverProb = getDouble("crossoverProb", Params.crossoverProb);
+        this.mutationProb = getDouble("mutationProb", Params.mutationProb);
+        this.mutationMergeProb = getDouble("mutationMergeProb", Params.mutationMergeProb);
+        this.pipelineGenerations = getBoolean("pipelineGenerations", Params.pipelineGenerations);
+        this.seed = getLong("seed", Params.seed);
+        // Scales with popSize unless given
+        this.fitnessCacheSize = getInt("fitnessCacheSize", Params.fitnessCacheSize * popSize / Params.popSize);
+        this.stagnationGenerations = getInt("stagnationGenerations", Params.stagnationGenerations);
+        this.stagnationTolerance = getDouble("stagnationTolerance", Params.stagnationTolerance);
+        this.convergenceMeasure = ConvergenceMeasure.valueOf(
+                get("convergenceMeasure", Params.convergenceMeasure.name()).toUpperCase());
+        this.timeBudgetSeconds = getDouble("timeBudgetSeconds", Params.timeBudgetSeconds);
+        this.evaluationBudget = getInt("evaluationBudget", Params.evaluationBudget);
+
+        Set<String> unknown = new TreeSet<>(values.stringPropertyNames());
+        unknown.removeAll(names);
+        if (!unknown.isEmpty()) {
+            throw new IllegalArgumentException("Unknown parameters " + unknown + ", expected one of "
+                    + new TreeSet<>(names));
+        }
+        if (popSize < 2 || parentSelectionSize < 1) {
+            throw new IllegalArgumentException("popSize must be at least 2 and parentSelectionSize at least 1");
+        }
+        requireProbability("tournamentProb", tournamentProb);
+        requireProbability("crossoverProb", crossoverProb);
+        requireProbability("mutationProb", mutationProb);
+        requireProbability("mutationMergeProb", mutationMergeProb);
+        requireNonNegative("numGenerations", numGenerations);
+        requireNonNegative("fitnessCacheSize", fitnessCacheSize);
+        requireNonNegative("stagnationGenerations", stagnationGenerations);
+        requireNonNegative("stagnationTolerance", stagnationTolerance);
+        requireNonNegative("timeBudgetSeconds", timeBudgetSeconds);
+        requireNonNegative("evaluationBudget", evaluationBudget);
+    }
+
+    /**
+     * @return the Params defaults
+     */
+    public static GAConfig defaults() {
+        return new GAConfig(new Properties());
+    }
+
+    /**
+     * Reads name=value lines, parameters not in the file keep their defaults
+     */
+    public static GAConfig load(Path file) throws IOException {
+        Properties values = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            values.load(reader);
+        }
+        return new GAConfig(values);
+    }
+
+    /**
+     * Reads command line arguments. Each argument is either a name=value pair or a properties file, which is read
+     * in place, so later arguments override earlier ones.
+     */
+    public static GAConfig parse(String... args) throws IOException {
+        Properties values = new Properties();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                try (Reader reader = Files.newBufferedReader(Path.of(arg))) {
+                    values.load(reader);
+                }
+            } else {
+                values.setProperty(arg.substring(0, separator).trim(), arg.substring(separator + 1).trim());
+            }
+        }
+        return new GAConfig(values);
+    }
+
+    /**
+     * @return a copy of this config with one parameter changed
+     */
+    public GAConfig with(String name, String value) {
+        Properties changed = new Properties();
+        changed.putAll(values);
+        changed.setProperty(name, value);
+        return new GAConfig(changed);
+    }
+
+    /**
+     * @return parameters that differ from Params, by name
+     */
+    public Map<String, String> getOverrides() {
+        Map<String, String> overrides = new LinkedHashMap<>();
+        for (String name : new TreeSet<>(values.stringPropertyNames())) {
+            overrides.put(name, values.getProperty(name));
+        }
+        return overrides;
+    }
+
+    private String get(String name, String defaultValue) {
+        names.add(name);
+        return values.getProperty(name, defaultValue);
+    }
+
+    private int getInt(String name, int defaultValue) {
+        String value = get(name, null);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("%s is not an integer: %s".formatted(name, value), e);
+        }
+    }
+
+    private long getLong(String name, long defaultValue) {
+        String value = get(name, null);
+        try {
+            return value == null ? defaultValue : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("%s is not an integer: %s".formatted(name, value), e);
+        }
+    }
+
+    private double getDouble(String name, double defaultValue) {
+        String value = get(name, null);
+        try {
+            return value == null ? defaultValue : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("%s is not a number: %s".formatted(name, value), e);
+        }
+    }
+
+    private boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name, null);
+        if (value == null) {
+            return defaultValue;
+        } else if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+            throw new IllegalArgumentException("%s is not true or false: %s".formatted(name, value));
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    private static void requireProbability(String name, double value) {
+        if (!(value >= 0 && value <= 1)) {
+            throw new IllegalArgumentException("%s must be between 0 and 1: %s".formatted(name, value));
+        }
+    }
+
+    private static void requireNonNegative(String name, Number value) {
+        if (!(value.doubleValue() >= 0)) {
+            throw new IllegalArgumentException("%s must not be negative: %s".formatted(name, value));
+        }
+    }
+
+    /**
+     * @return seed, or a new seed when it is 0
+     */
+    public long newSeed() {
+        return seed != 0 ? seed : System.nanoTime();
+    }
+
+    public int getNumGenerations() {
+        return numGenerations;
+    }
+
+    public int getPopSize() {
+        return popSize;
+    }
+
+    public int getParentSelectionSize() {
+        return parentSelectionSize;
+    }
+
+    public double getTournamentProb() {
+        return tournamentProb;
+    }
+
+    public double getCrossoverProb() {
+        return crossoverProb;
+    }
+
+    public double getMutationProb() {
+        return mutationProb;
+    }
+
+    public double getMutationMergeProb() {
+        return mutationMergeProb;
+    }
+
+    public boolean isPipelineGenerations() {
+        return pipelineGenerations;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getFitnessCacheSize() {
+        return fitnessCacheSize;
+    }
+
+    public int getStagnationGenerations() {
+        return stagnationGenerations;
+    }
+
+    public double getStagnationTolerance() {
+        return stagnationTolerance;
+    }
+
+    public ConvergenceMeasure getConvergenceMeasure() {
+        return convergenceMeasure;
+    }
+
+    public double getTimeBudgetSeconds() {
+        return timeBudgetSeconds;
+    }
+
+    public int getEvaluationBudget() {
+        return evaluationBudget;
+    }
+
+    /**
+     * @return the parameters that differ from Params, e.g. "popSize=80 mutationProb=0.1", or "defaults"
+     */
+    @Override
+    public String toString() {
+        if (values.isEmpty()) {
+            return "defaults";
+        }
+        StringBuilder builder = new StringBuilder();
+        getOverrides().forEach((name, value) -> builder.append(builder.isEmpty() ? "" : " ")
+                .append(name).append('=').append(value));
+        return builder.toString();
+    }
+}
@@ -1,5 +1,9 @@
 package src;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -8,124 +12,691 @@ public class GenAlg {
     private List<Individual> pop;
     private List<List<Individual>> rankedPopulation;
     private final int genotypeLength;
-
-    private final Executor executor = Executors.newFixedThreadPool(Params.threadPoolSize);
-    private final Random rand = ThreadLocalRandom.current();
+    private final GAConfig config;
+    private int numGenerations;
+
+    private final Executor executor;
+    // Offspring being produced for the next generation of runGA2
+    private List<CompletableFuture<Pair<Individual, Individual>>> offspring;
+    private GenerationMetrics offspringMetrics; // Metrics of the generation the offspring are for
+    private final List<GenerationListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<FrontSubscription> frontSubscriptions = new CopyOnWriteArrayList<>();
+    private volatile ParetoFrontSnapshot latestFront; // Null until the initial population is ranked
+    // Set by cancel from any thread, the run stops at the end of the current generation
+    private volatile boolean cancelled;
+    // Termination of runGA2 besides numGenerations, see checkTermination. Unused when generations are run one by one
+    private ConvergenceMonitor convergence;
+    private long deadlineNanos;
+    private boolean hasDeadline;
+    private int evaluationBudget; // 0 for none
+    private long evaluations; // Individuals in the initial population and all offspring so far
+    private StopReason stopReason;
+    // Individuals sent from other islands, joining the population at the next generation
+    private final Queue<Individual> immigrants = new ConcurrentLinkedQueue<>();
+    // All random numbers of a run are derived from the seed, see generationRandom
+    private long seed;
+    // Checkpoints are written one at a time, in the background
+    private CompletableFuture<Void> pendingCheckpoint = CompletableFuture.completedFuture(null);
+    // Holds the genotypes of the population when Params.useOffHeapPopulation is set, null otherwise
+    private final PopulationStore store;
+    // Decoded individuals of earlier generations by genotype, null when the config's fitnessCacheSize is 0 or the
+    // population is stored. Population members are never modified during a run, so they are cached as they are
+    private final FitnessCache fitnessCache;
+    // Scores the best individual after every generation, null for none, see setGroundTruthEvaluator
+    private GroundTruthEvaluator groundTruthEvaluator;
 
     public GenAlg(ImageHandler image) {
+        this(image, Executors.newFixedThreadPool(Params.threadPoolSize));
+    }
+
+    /**
+     * @param image image to segment
+     * @param executor executor producing individuals, e.g. a direct executor to run the whole GA on the calling thread
+     */
+    public GenAlg(ImageHandler image, Executor executor) {
+        this(image, executor, newSeed());
+    }
+
+    /**
+     * @param image image to segment
+     * @param executor executor producing individuals
+     * @param seed seed of all random numbers of the run
+     */
+    public GenAlg(ImageHandler image, Executor executor, long seed) {
+        this(image, executor, GAConfig.defaults(), seed);
+    }
+
+    /**
+     * @param image image to segment, may be shared with other GAs
+     * @param executor executor producing individuals
+     * @param config parameters of the run, seeded by its seed
+     */
+    public GenAlg(ImageHandler image, Executor executor, GAConfig config) {
+        this(image, executor, config, config.newSeed());
+    }
+
+    /**
+     * @param image image to segment, may be shared with other GAs
+     * @param executor executor producing individuals
+     * @param config parameters of the run
+     * @param seed seed of all random numbers of the run, used instead of the seed of config
+     */
+    public GenAlg(ImageHandler image, Executor executor, GAConfig config, long seed) {
         this.image = image;
         this.genotypeLength = image.getHeight() * image.getWidth();
+        this.executor = executor;
+        this.config = config;
+        this.numGenerations = config.getNumGenerations();
+        this.seed = seed;
+        this.store = Params.useOffHeapPopulation ? createStore(image) : null;
+        this.fitnessCache = createFitnessCache(config, store);
+    }
+
+    /**
+     * A stored population drops the decoded segments the cache would keep on the heap, so the two don't combine
+     */
+    private static FitnessCache createFitnessCache(GAConfig config, PopulationStore store) {
+        if (config.getFitnessCacheSize() <= 0) {
+            return null;
+        } else if (store != null) {
+            System.out.println("Fitness cache disabled, as the population is kept off the heap");
+            return null;
+        }
+        return new FitnessCache(config.getFitnessCacheSize());
+    }
+
+    private static PopulationStore createStore(ImageHandler image) {
+        if (Params.populationStoreDirectory.isEmpty()) {
+            return new PopulationStore(image);
+        }
+        return new PopulationStore(image, Path.of(Params.populationStoreDirectory));
+    }
+
+    /**
+     * @return Params.seed, or a new seed when it is 0
+     */
+    public static long newSeed() {
+        return GAConfig.defaults().newSeed();
     }
 
     public void runGA() {
         int currentGen = 0;
         generatePop();
-        while (currentGen < Params.numGenerations) { // Run GA
-            System.out.printf("Generation: %d%n", currentGen); // TODO: modify and improve print
-            List<Individual> parents = parentSelection(this.pop);
-            List<Individual> newPopulation = Collections.synchronizedList(new ArrayList<>());
-            for (int i = 0; i < Params.popSize / 2; i++) { // Crossover pairs of parents from parentSelection
-                executor.execute(() -> {
-                    Random threadLocalRand = ThreadLocalRandom.current();
-                    Individual parent1 = parents.get(threadLocalRand.nextInt(parents.size()));
-                    Individual parent2 = parents.get(threadLocalRand.nextInt(parents.size()));
-                    Pair<Individual, Individual> offspring = crossover(parent1, parent2, threadLocalRand);
-                    newPopulation.add(offspring.x);
-                    newPopulation.add(offspring.y);
-                    if (rand.nextDouble() < Params.mutationMergeProb) {
-                        offspring.x.mutationMergeSegments(threadLocalRand);
-                    }
-                    if (rand.nextDouble() < Params.mutationMergeProb) {
-                        offspring.y.mutationMergeSegments(threadLocalRand);
-                    }
-                });
-            }
-            while (newPopulation.size() != Params.popSize) {
-                ; // Synchronize threads
-            }
-            for (Individual individual : newPopulation) {
-                if (rand.nextDouble() < Params.mutationProb) {
-                    individual.mutationMergeSegments(rand);
-                }
+        while (currentGen < this.numGenerations && !cancelled) { // Run GA
+            long generationStart = System.nanoTime();
+            startOffspring(this.pop, currentGen);
+            List<Individual> newPopulation = collectOffspring(this.offspring);
+            addToCache(newPopulation);
+            int numOffspring = newPopulation.size();
+            Set<Individual> survivors = Collections.newSetFromMap(new IdentityHashMap<>());
+            if (cancelled && numOffspring < this.pop.size()) { // Cut short, the rest of the population survives
+                newPopulation.addAll(this.pop.subList(numOffspring, this.pop.size()));
+                survivors.addAll(newPopulation.subList(numOffspring, newPopulation.size()));
             }
+            releaseStorage(this.pop, survivors);
             this.pop = newPopulation;
+            this.offspringMetrics.finish(System.nanoTime() - generationStart, numOffspring, List.of(),
+                    newPopulation);
+            scoreGroundTruth(newPopulation, this.offspringMetrics);
+            notifyListeners(this.offspringMetrics);
             currentGen++;
         }
+        closeStore();
     }
 
-    public void runGA2() { // Genetic alg where parents may survive until next generation if they perform well
-        int currentGen = 0;
+    /**
+     * Genetic alg where parents may survive until next generation if they perform well.
+     * Generations are pipelined: once the combined population is ranked, the fronts that survive whole are known,
+     * and offspring for the next generation are produced from them while the last front is trimmed by crowding
+     * distance. Only ranking and parent selection keep the workers idle.
+     * Runs until checkTermination gives a reason to stop, which is kept as the stop reason.
+     */
+    public void runGA2() {
+        long startTime = System.nanoTime();
+        this.hasDeadline = config.getTimeBudgetSeconds() > 0;
+        this.deadlineNanos = startTime + (long) (config.getTimeBudgetSeconds() * 1e9);
+        this.evaluationBudget = config.getEvaluationBudget();
+        int firstGen = Params.resumeFromCheckpoint ? resumeFromCheckpoint() : 0;
+        if (firstGen == 0) {
+            startGA2();
+        }
+        // A resumed run measures convergence from the checkpointed population
+        this.convergence = new ConvergenceMonitor(this.pop, config);
+        int checkpointInterval = Params.checkpointInterval; // Not a constant, which may be 0 in the modulo below
+        int currentGen = firstGen;
+        while ((this.stopReason = checkTermination(currentGen)) == null) { // Run GA
+            nextGeneration(currentGen);
+            currentGen++;
+            if (checkpointInterval > 0 && currentGen % checkpointInterval == 0) {
+                writeCheckpoint(currentGen);
+            }
+        }
+        discardOffspring();
+        System.out.printf("Stopped after %d generations and %d evaluations in %.1f s: %s%n", currentGen, evaluations,
+                (System.nanoTime() - startTime) / 1e9, stopReason);
+        this.convergence = null;
+        this.hasDeadline = false;
+        this.evaluationBudget = 0;
+        closeStore();
+    }
+
+    /**
+     * Waits for the pending checkpoint and closes the population store, once no more generations are run.
+     * The population stays readable.
+     */
+    public void closeStore() {
+        pendingCheckpoint.join();
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private Path getCheckpointFile() {
+        return Path.of(Params.outputDirectory, image.getName(), Params.checkpointFileName);
+    }
+
+    /**
+     * Writes the population in the background, so the next generation can start right away. Individuals are
+     * referenced, as their genotypes and objectives never change during the run, and their ranks and crowding
+     * distances are copied by the Checkpoint.
+     *
+     * @param nextGen the generation to run when resuming
+     */
+    private void writeCheckpoint(int nextGen) {
+        Checkpoint checkpoint = new Checkpoint(this.seed, nextGen, new ArrayList<>(this.pop));
+        pendingCheckpoint = pendingCheckpoint.thenRunAsync(() -> {
+            long startTime = System.nanoTime();
+            try {
+                checkpoint.write(getCheckpointFile(), image);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            System.out.printf("Checkpoint of generation %d written in %.1f ms%n", nextGen,
+                    (System.nanoTime() - startTime) / 1e6);
+        });
+    }
+
+    /**
+     * Restores the population and random seed of the last checkpoint of the image, if there is one, publishes its
+     * first front and starts producing offspring for its next generation
+     *
+     * @return the next generation to run, 0 if there is no checkpoint to resume
+     */
+    private int resumeFromCheckpoint() {
+        Path file = getCheckpointFile();
+        if (!Files.exists(file)) {
+            System.out.println("No checkpoint to resume at " + file);
+            return 0;
+        }
+        Checkpoint checkpoint;
+        try {
+            checkpoint = Checkpoint.read(file, image, executor);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        System.out.printf("Resuming from generation %d of %s%n", checkpoint.getGeneration(), file);
+        this.seed = checkpoint.getSeed();
+        this.pop = checkpoint.getPopulation();
+        this.evaluations = this.pop.size();
+        addToCache(this.pop);
+        storePopulation(this.pop);
+        // Ranked on a copy, as parents are selected by their order in the population. The restored ranks stay the
+        // same, as every front ahead of the last surviving one survived whole.
+        this.rankedPopulation = rankPopulation(new ArrayList<>(this.pop));
+        int nextGen = checkpoint.getGeneration();
+        publishFront(nextGen);
+        if (nextGen < this.numGenerations) {
+            startOffspring(this.pop, nextGen);
+        }
+        return nextGen;
+    }
+
+    /**
+     * Creates and ranks the initial population of runGA2, and starts producing the first offspring
+     */
+    public void startGA2() {
         generatePop();
-        rankPopulation(this.pop);
-        while (currentGen < Params.numGenerations) { // Run GA
-            System.out.printf("Generation: %d%n", currentGen); // TODO: modify and improve print
-            List<Individual> parents = parentSelection(this.pop);
-            List<Individual> newPopulation = Collections.synchronizedList(new ArrayList<>());
-            for (int i = 0; i < Params.popSize / 2; i++) {
-                executor.execute(() -> {
-                    Random threadLocalRand = ThreadLocalRandom.current();
-                    Individual parent1 = parents.get(threadLocalRand.nextInt(parents.size()));
-                    Individual parent2 = parents.get(threadLocalRand.nextInt(parents.size()));
-                    Pair<Individual, Individual> offspring = crossover(parent1, parent2, threadLocalRand);
-                    if (rand.nextDouble() < Params.mutationMergeProb) {
-                        offspring.x.mutationMergeSegments(threadLocalRand);
-                    }
-                    if (rand.nextDouble() < Params.mutationMergeProb) {
-                        offspring.y.mutationMergeSegments(threadLocalRand);
-                    }
-                    newPopulation.add(offspring.x);
-                    newPopulation.add(offspring.y);
-                });
+        startGA2(this.pop);
+    }
+
+    /**
+     * Starts runGA2 from a given initial population, e.g. one carried over from another image
+     */
+    public void startGA2(List<Individual> initialPopulation) {
+        this.pop = new ArrayList<>(initialPopulation);
+        addToCache(this.pop);
+        this.evaluations = this.pop.size();
+        storePopulation(this.pop);
+        this.rankedPopulation = rankPopulation(this.pop);
+        publishFront(0);
+        if (this.numGenerations > 0) {
+            startOffspring(this.pop, 0);
+        }
+    }
+
+    /**
+     * Runs one generation of runGA2, must be called after startGA2.
+     * Once cancelled or out of time, the generation is finished with the offspring produced so far and no more
+     * offspring are started.
+     *
+     * @param currentGen number of the generation, from 0 to numGenerations - 1
+     */
+    public void nextGeneration(int currentGen) {
+        long generationStart = System.nanoTime();
+        GenerationMetrics metrics = this.offspringMetrics;
+        List<Individual> newPopulation = collectOffspring(this.offspring);
+        this.evaluations += newPopulation.size();
+        addToCache(newPopulation);
+
+        // Serial phase, no offspring are being produced until the next ones are started
+        long serialStart = System.nanoTime();
+        this.pop.addAll(newPopulation);
+        for (Individual immigrant = immigrants.poll(); immigrant != null; immigrant = immigrants.poll()) {
+            if (store != null) {
+                immigrant.storeIn(store);
+            }
+            this.pop.add(immigrant);
+        }
+        this.rankedPopulation = rankPopulation(this.pop);
+        if (convergence != null) {
+            convergence.update(this.rankedPopulation.get(0));
+            metrics.setConvergence(convergence.getHypervolume(), convergence.getStagnantGenerations());
+        }
+        metrics.addRankingNanos(System.nanoTime() - serialStart);
+        // No offspring are produced for a generation that won't run
+        boolean isLastGen = checkTermination(currentGen + 1) != null;
+        long crowdingStart = System.nanoTime();
+        List<Individual> earlyParentPool = config.isPipelineGenerations() ? survivingFronts() : List.of();
+        metrics.addCrowdingNanos(System.nanoTime() - crowdingStart);
+        if (!isLastGen && earlyParentPool.size() >= config.getPopSize() / 2) {
+            startOffspring(earlyParentPool, currentGen + 1);
+            long serialNanos = System.nanoTime() - serialStart;
+            crowdingStart = System.nanoTime();
+            newPopulationFromRank(); // Overlaps with the offspring of the next generation
+            metrics.addCrowdingNanos(System.nanoTime() - crowdingStart);
+            releaseDropped();
+            metrics.setSerialNanos(serialNanos);
+        } else {
+            crowdingStart = System.nanoTime();
+            newPopulationFromRank();
+            metrics.addCrowdingNanos(System.nanoTime() - crowdingStart);
+            releaseDropped();
+            if (isLastGen) {
+                this.offspring = List.of();
+            } else {
+                startOffspring(this.pop, currentGen + 1);
+            }
+            metrics.setSerialNanos(System.nanoTime() - serialStart);
+        }
+        if (store != null) {
+            metrics.setStoredBytes(store.getStoredBytes());
+        }
+        metrics.finish(System.nanoTime() - generationStart, newPopulation.size(), this.rankedPopulation, this.pop);
+        scoreGroundTruth(this.rankedPopulation.get(0), metrics);
+        notifyListeners(metrics);
+        publishFront(currentGen + 1);
+    }
+
+    /**
+     * Adds individuals to the fitness cache in order, e.g. the collected offspring in the order they were submitted
+     */
+    private void addToCache(List<Individual> individuals) {
+        if (fitnessCache != null) {
+            individuals.forEach(fitnessCache::put);
+        }
+    }
+
+    /**
+     * Whether runGA2 should stop before running a generation. Besides numGenerations and cancel, runGA2 stops once
+     * the first front has converged, the time budget of the config has passed since it started, or the next
+     * generation would exceed its evaluation budget.
+     *
+     * @param generation the generation to run next
+     * @return why to stop, null to run the generation
+     */
+    private StopReason checkTermination(int generation) {
+        if (cancelled) {
+            return StopReason.CANCELLED;
+        } else if (isPastDeadline()) {
+            return StopReason.TIME_BUDGET;
+        } else if (generation >= this.numGenerations) {
+            return StopReason.GENERATIONS;
+        } else if (convergence != null && convergence.hasConverged()) {
+            return StopReason.STAGNATION;
+        } else if (evaluationBudget > 0 && evaluations + 2 * (config.getPopSize() / 2) > evaluationBudget) {
+            return StopReason.EVALUATION_BUDGET;
+        }
+        return null;
+    }
+
+    private boolean isPastDeadline() {
+        return hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * Waits for offspring that are still being produced after the last generation, and frees their store slots.
+     * Offspring not started yet are skipped once cancelled, see produceOffspring.
+     */
+    private void discardOffspring() {
+        if (this.offspring == null || this.offspring.isEmpty()) {
+            return;
+        }
+        releaseStorage(collectOffspring(this.offspring), Set.of());
+        this.offspring = List.of();
+    }
+
+    private void storePopulation(List<Individual> population) {
+        if (store != null) {
+            for (Individual individual : population) {
+                individual.storeIn(store);
+            }
+        }
+    }
+
+    /**
+     * Frees the store slots of the ranked individuals that did not survive into the new population
+     */
+    private void releaseDropped() {
+        if (store == null) {
+            return;
+        }
+        Set<Individual> survivors = Collections.newSetFromMap(new IdentityHashMap<>());
+        survivors.addAll(this.pop);
+        List<Individual> ranked = new ArrayList<>();
+        this.rankedPopulation.forEach(ranked::addAll);
+        releaseStorage(ranked, survivors);
+    }
+
+    /**
+     * Frees the store slots of individuals not in keep, once the pending checkpoint no longer reads them
+     */
+    private void releaseStorage(List<Individual> individuals, Set<Individual> keep) {
+        if (store == null) {
+            return;
+        }
+        List<Individual> dropped = individuals.stream().filter(individual -> !keep.contains(individual)).toList();
+        pendingCheckpoint = pendingCheckpoint.thenRun(() -> dropped.forEach(Individual::releaseStorage));
+    }
+
+    /**
+     * Scores the best individual by combined fitness against the ground truth after every following generation, as
+     * ParameterSweep scores a run, see GenerationMetrics.getGroundTruthScore. The score is computed on the thread
+     * running the GA, after the generation time is taken.
+     *
+     * @param evaluator evaluator for the image of this GA, null to stop scoring
+     */
+    public void setGroundTruthEvaluator(GroundTruthEvaluator evaluator) {
+        this.groundTruthEvaluator = evaluator;
+    }
+
+    /**
+     * @param candidates the first front for runGA2, the population for runGA
+     */
+    private void scoreGroundTruth(List<Individual> candidates, GenerationMetrics metrics) {
+        if (groundTruthEvaluator == null || candidates.isEmpty()) {
+            return;
+        }
+        Individual best = Collections.min(candidates, Comparator.comparingDouble(Individual::computeCombinedFitness));
+        metrics.setGroundTruthScore(groundTruthEvaluator.evaluate(best));
+    }
+
+    /**
+     * Adds a listener receiving the metrics of every following generation of runGA and runGA2
+     */
+    public void addListener(GenerationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(GenerationListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyListeners(GenerationMetrics metrics) {
+        for (GenerationListener listener : listeners) {
+            listener.onGeneration(metrics);
+        }
+    }
+
+    /**
+     * Adds a listener receiving the first pareto-front after every following generation of runGA2, including the
+     * ranked initial population. Fronts are delivered on executor, so the listener never delays the GA.
+     */
+    public void addFrontListener(FrontListener listener, Executor executor) {
+        frontSubscriptions.add(new FrontSubscription(listener, executor));
+    }
+
+    public void removeFrontListener(FrontListener listener) {
+        frontSubscriptions.removeIf(subscription -> subscription.getListener() == listener);
+    }
+
+    /**
+     * Snapshots the first pareto-front of rankedPopulation, keeping only the individuals that survived into pop
+     */
+    private void publishFront(int generation) {
+        List<Individual> front = new ArrayList<>();
+        for (Individual individual : this.pop) { // Dropped individuals may have their store slots released
+            if (individual.getRank() == 1) {
+                front.add(individual);
             }
-            while (newPopulation.size() != Params.popSize) {
-                ; // Synchronize threads
+        }
+        ParetoFrontSnapshot snapshot = new ParetoFrontSnapshot(image, generation, front);
+        this.latestFront = snapshot;
+        for (FrontSubscription subscription : frontSubscriptions) {
+            subscription.publish(snapshot);
+        }
+    }
+
+    /**
+     * The best segmentations found so far, e.g. to use the result of a run that is cut short. Safe to call from any
+     * thread while the GA runs.
+     *
+     * @return first pareto-front of the last finished generation of runGA2, null before the initial population is
+     * ranked
+     */
+    public ParetoFrontSnapshot getLatestFront() {
+        return latestFront;
+    }
+
+    /**
+     * Stops runGA and runGA2 at the end of the current generation. Offspring that are not started yet are skipped,
+     * so the generation ends with the offspring produced so far, and runGA keeps the individuals they would have
+     * replaced. Safe to call from any thread, a cancelled GA can't be run again.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return why the last runGA2 stopped, null before it stopped
+     */
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * @return individuals in the initial population and all offspring so far
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Selects parents from parentPool and starts producing offspring for a generation, replacing offspring and
+     * offspringMetrics
+     */
+    private void startOffspring(List<Individual> parentPool, int generation) {
+        GenerationMetrics metrics = new GenerationMetrics(generation);
+        long selectionStart = System.nanoTime();
+        List<Individual> parents = parentSelection(parentPool, generationRandom(generation, -1));
+        metrics.addSelectionNanos(System.nanoTime() - selectionStart);
+        this.offspring = produceOffspring(parents, generation, metrics);
+        this.offspringMetrics = metrics;
+    }
+
+    /**
+     * Copies of the least crowded individuals of the best pareto-front, to send to another island.
+     * Must be called between generations.
+     *
+     * @param maxMigrants most individuals to return
+     */
+    public List<Individual> selectMigrants(int maxMigrants) {
+        List<Individual> paretoFront = new ArrayList<>();
+        for (Individual individual : this.pop) { // Individuals left after trimming by crowding distance
+            if (individual.getRank() == 1) {
+                paretoFront.add(individual);
             }
-            for (Individual individual : newPopulation) {
-                if (rand.nextDouble() < Params.mutationProb) {
-                    individual.mutationMergeSegments(rand);
+        }
+        paretoFront.sort((a, b) -> Double.compare(b.getCrowdingDistance(), a.getCrowdingDistance()));
+        List<Individual> migrants = new ArrayList<>();
+        for (Individual individual : paretoFront.subList(0, Math.min(maxMigrants, paretoFront.size()))) {
+            migrants.add(new Individual(individual));
+        }
+        return migrants;
+    }
+
+    /**
+     * Adds individuals from another island, they join the population when the next generation is ranked.
+     * Safe to call from any thread.
+     */
+    public void receiveMigrants(Collection<Individual> migrants) {
+        immigrants.addAll(migrants);
+    }
+
+    /**
+     * Random numbers for one task of a generation. Each task gets its own stream derived from the seed, so the
+     * results don't depend on which thread runs the task.
+     *
+     * @param generation generation the task belongs to, -1 for the initial population
+     * @param task index of the task within the generation, -1 for parent selection
+     */
+    private Random generationRandom(int generation, int task) {
+        return new Random(new SplittableRandom(seed ^ ((long) generation << 32 | task & 0xFFFFFFFFL)).nextLong());
+    }
+
+    /**
+     * Starts producing popSize offspring on the executor, from pairs of random parents
+     *
+     * @param parents parents to pick pairs from, must not be modified until all offspring are collected
+     * @param generation generation the offspring are for
+     * @param metrics metrics receiving the time spent on each offspring
+     * @return pairs of offspring, in order of submission. A pair is null if it was skipped after cancel or once the
+     * time budget ran out.
+     */
+    private List<CompletableFuture<Pair<Individual, Individual>>> produceOffspring(List<Individual> parents,
+                                                                                  int generation,
+                                                                                  GenerationMetrics metrics) {
+        List<CompletableFuture<Pair<Individual, Individual>>> offspring = new ArrayList<>();
+        for (int i = 0; i < config.getPopSize() / 2; i++) { // Crossover pairs of parents from parentSelection
+            int task = i;
+            offspring.add(CompletableFuture.supplyAsync(() -> {
+                if (cancelled || isPastDeadline()) {
+                    return null;
                 }
+                Random threadLocalRand = generationRandom(generation, task);
+                Individual parent1 = parents.get(threadLocalRand.nextInt(parents.size()));
+                Individual parent2 = parents.get(threadLocalRand.nextInt(parents.size()));
+                long crossoverStart = System.nanoTime();
+                Pair<Individual, Individual> pair = crossover(parent1, parent2, threadLocalRand, metrics);
+                long mutationStart = System.nanoTime();
+                for (Individual child : List.of(pair.x, pair.y)) {
+                    if (threadLocalRand.nextDouble() < config.getMutationMergeProb()) {
+                        child.mutationMergeSegments(threadLocalRand);
+                    }
+                    if (threadLocalRand.nextDouble() < config.getMutationProb()) {
+                        child.mutationMergeSegments(threadLocalRand);
+                    }
+                }
+                if (store != null) { // Only the objectives stay on the heap
+                    pair.x.storeIn(store);
+                    pair.y.storeIn(store);
+                }
+                // Copied children are not decoded, and have no decode time
+                long decodeNanos = pair.x.getDecodeNanos() + pair.y.getDecodeNanos();
+                metrics.addOffspringNanos(mutationStart - crossoverStart - decodeNanos, decodeNanos,
+                        System.nanoTime() - mutationStart);
+                return pair;
+            }, executor));
+        }
+        return offspring;
+    }
+
+    /**
+     * Waits for all offspring from produceOffspring, leaving out skipped pairs
+     */
+    private List<Individual> collectOffspring(List<CompletableFuture<Pair<Individual, Individual>>> offspring) {
+        List<Individual> newPopulation = new ArrayList<>();
+        for (CompletableFuture<Pair<Individual, Individual>> future : offspring) {
+            Pair<Individual, Individual> pair = future.join();
+            if (pair != null) {
+                newPopulation.add(pair.x);
+                newPopulation.add(pair.y);
             }
-            this.pop.addAll(newPopulation);
-            this.rankedPopulation = rankPopulation(this.pop);
-            newPopulationFromRank();
-            currentGen++;
         }
+        return newPopulation;
     }
 
+    /**
+     * The best pareto-fronts that fit in the next population without trimming, with crowding distances assigned.
+     * Must be called after rankPopulation.
+     */
+    private List<Individual> survivingFronts() {
+        List<Individual> survivors = new ArrayList<>();
+        for (List<Individual> paretoFront : this.rankedPopulation) {
+            if (survivors.size() + paretoFront.size() > config.getPopSize()) {
+                break;
+            }
+            assignCrowdingDistance(paretoFront);
+            survivors.addAll(paretoFront);
+        }
+        return survivors;
+    }
 
     private void generatePop() {
         System.out.println("Generating initial population...");
-        // pop is synchronized for multithreading
-        List<Individual> newPopulation = Collections.synchronizedList(new ArrayList<>());
-        ThreadPoolExecutor tempExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(Params.threadPoolSize);
-
-        for (int i = 0; i < Params.popSize; i++) {
-            tempExecutor.execute(() -> {
-                Individual ind = new Individual(this.image, ThreadLocalRandom.current().nextInt(5, 35)); // TODO: Test values
-                System.out.printf("src.Individual created. segments: %d, genotype length: %d%n", ind.getNumSegments(), ind.getGenotype().size());
-                newPopulation.add(ind);
-            });
-        }
-        tempExecutor.shutdown();
+        List<CompletableFuture<Individual>> individuals = new ArrayList<>();
+        for (int i = 0; i < config.getPopSize(); i++) {
+            int task = i;
+            individuals.add(CompletableFuture.supplyAsync(() -> {
+                Individual ind = new Individual(this.image, generationRandom(-1, task).nextInt(5, 35)); // TODO: Test values
+                System.out.printf("src.Individual created. segments: %d, genotype length: %d%n", ind.getNumSegments(), ind.getGenotype().length);
+                return ind;
+            }, executor));
+        }
         try {
-            if (!tempExecutor.awaitTermination(1, TimeUnit.MINUTES)){
-                System.out.println("Timeout while generating pop");
-            }
-        } catch (InterruptedException e) {
+            CompletableFuture.allOf(individuals.toArray(new CompletableFuture<?>[0])).get(1, TimeUnit.MINUTES);
+        } catch (TimeoutException e) {
+            System.out.println("Timeout while generating pop");
+        } catch (InterruptedException | ExecutionException e) {
             e.printStackTrace();
         }
+        // Individuals that are not done in time are left out
+        List<Individual> newPopulation = new ArrayList<>();
+        for (CompletableFuture<Individual> individual : individuals) {
+            if (individual.isDone() && !individual.isCompletedExceptionally()) {
+                newPopulation.add(individual.join());
+            }
+        }
         System.out.println("Done creating initial population!");
         this.pop = newPopulation;
     }
 
-    private List<Individual> parentSelection(List<Individual> population) {
+    private List<Individual> parentSelection(List<Individual> population, Random rand) {
         List<Individual> selected = new ArrayList<>();
-        Random rand = ThreadLocalRandom.current();
-        while (selected.size() < Params.parentSelectionSize) {
+        while (selected.size() < config.getParentSelectionSize()) {
             Individual parent1 = population.get(rand.nextInt(population.size()));
             Individual parent2 = population.get(rand.nextInt(population.size()));
 
-            if (rand.nextDouble() < Params.tournamentProb) {
+            if (rand.nextDouble() < config.getTournamentProb()) {
                 if (parent1.isStrictlyFitterThan(parent2)) {
                     selected.add(parent1);
                 } else if (parent2.isStrictlyFitterThan(parent1)) {
@@ -150,110 +721,136 @@ public class GenAlg {
         return selected;
     }
 
-    private Pair<Individual, Individual> crossover(Individual parentA, Individual parentB, Random threadLocalRand) {
+    Pair<Individual, Individual> crossover(Individual parentA, Individual parentB, Random threadLocalRand) {
+        return crossover(parentA, parentB, threadLocalRand, new GenerationMetrics(-1));
+    }
+
+    /**
+     * @param metrics metrics counting fitness cache hits and misses
+     */
+    private Pair<Individual, Individual> crossover(Individual parentA, Individual parentB, Random threadLocalRand,
+                                                   GenerationMetrics metrics) {
+        if (threadLocalRand.nextDouble() >= config.getCrossoverProb()) {
+            // No crossover, the children are copies of their parents and keep their decoded segments
+            Individual childA = new Individual(parentA);
+            Individual childB = new Individual(parentB);
+            mutateRandomGene(childA, threadLocalRand);
+            mutateRandomGene(childB, threadLocalRand);
+            return new Pair<>(childA, childB);
+        }
         // Copy genotypes so separate threads can't modify them concurrently
         // Or so it does not crash when both parents are the same
-        List<Gene> genotypeA = new ArrayList<>(parentA.getGenotype());
-        List<Gene> genotypeB = new ArrayList<>(parentB.getGenotype());
+        byte[] genotypeA = new byte[genotypeLength];
+        byte[] genotypeB = new byte[genotypeLength];
 
         // Crossover by slicing and swapping. Very simple, very dumb.
-        if (threadLocalRand.nextDouble() < Params.crossoverProb) {
-            int sliceIndex = threadLocalRand.nextInt(genotypeLength);
-            List<Gene> temp = new ArrayList<>(genotypeA.subList(sliceIndex, genotypeLength));
-            genotypeA.subList(sliceIndex, genotypeLength).clear();
-            genotypeA.addAll(genotypeB.subList(sliceIndex, genotypeLength));
-            genotypeB.subList(sliceIndex, genotypeLength).clear();
-            genotypeB.addAll(temp);
-        }
+        int sliceIndex = threadLocalRand.nextInt(genotypeLength);
+        // Stored parents read a new copy of their genotype each time, so it is read once
+        byte[] parentGenotypeA = parentA.getGenotype();
+        byte[] parentGenotypeB = parentB.getGenotype();
+        System.arraycopy(parentGenotypeA, 0, genotypeA, 0, sliceIndex);
+        System.arraycopy(parentGenotypeB, sliceIndex, genotypeA, sliceIndex, genotypeLength - sliceIndex);
+        System.arraycopy(parentGenotypeB, 0, genotypeB, 0, sliceIndex);
+        System.arraycopy(parentGenotypeA, sliceIndex, genotypeB, sliceIndex, genotypeLength - sliceIndex);
         // Mutate
-        genotypeA = mutateRandomGene(genotypeA, threadLocalRand);
-        genotypeB = mutateRandomGene(genotypeB, threadLocalRand);
-        return new Pair<>(new Individual(this.image, genotypeA), new Individual(this.image, genotypeB));
+        mutateRandomGene(genotypeA, threadLocalRand);
+        mutateRandomGene(genotypeB, threadLocalRand);
+        return new Pair<>(decode(genotypeA, metrics), decode(genotypeB, metrics));
+    }
+
+    /**
+     * Decodes a genotype, or copies an individual of an earlier generation with the same genotype
+     */
+    private Individual decode(byte[] genotype, GenerationMetrics metrics) {
+        long hash = GenotypeHash.of(genotype);
+        if (fitnessCache != null) {
+            Individual cached = fitnessCache.get(hash, genotype);
+            metrics.addCacheLookup(cached != null);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return new Individual(this.image, genotype, hash);
     }
 
     /**
-     * Mutates a random gene with probability src.Params.mutationProb
+     * Mutates a random gene with probability the config's mutationProb
      *
-     * @param genotype Genotype to mutate
+     * @param genotype Genotype to mutate in place
      * @param threadLocalRand Random object to use within thread
      * @return mutated genotype
      */
-    public List<Gene> mutateRandomGene(List<Gene> genotype, Random threadLocalRand) {
-        if (threadLocalRand.nextDouble() < Params.mutationProb) {
-            int randomGeneIndex = threadLocalRand.nextInt(genotype.size()); // Select single random gene
-            Pair<Integer, Integer> pixelCoords = genotypeIndexToCoords(randomGeneIndex, this.image.getHeight());
-            List<Gene> legalGenes = this.image.getPixels()[pixelCoords.x][pixelCoords.y].getValidGenes();
-            genotype.set(randomGeneIndex, legalGenes.get(threadLocalRand.nextInt(legalGenes.size())));
+    public byte[] mutateRandomGene(byte[] genotype, Random threadLocalRand) {
+        if (threadLocalRand.nextDouble() < config.getMutationProb()) {
+            int randomGeneIndex = threadLocalRand.nextInt(genotype.length); // Select single random gene
+            Gene[] legalGenes = this.image.getValidGenes(randomGeneIndex);
+            genotype[randomGeneIndex] = legalGenes[threadLocalRand.nextInt(legalGenes.length)].code();
         }
         return genotype;
     }
 
+    /**
+     * Mutates a random gene of an already decoded individual with probability the config's mutationProb,
+     * only updating the segments the gene belongs to
+     *
+     * @param individual Individual to mutate
+     * @param threadLocalRand Random object to use within thread
+     */
+    public void mutateRandomGene(Individual individual, Random threadLocalRand) {
+        if (threadLocalRand.nextDouble() < config.getMutationProb()) {
+            int randomGeneIndex = threadLocalRand.nextInt(genotypeLength); // Select single random gene
+            Gene[] legalGenes = this.image.getValidGenes(randomGeneIndex);
+            individual.mutateGene(randomGeneIndex, legalGenes[threadLocalRand.nextInt(legalGenes.length)]);
+        }
+    }
+
+    /**
+     * Sorts population into pareto-fronts and sets the rank of each individual, see NonDominatedSorter.
+     * Population is reordered front by front, each front keeping the order individuals had in population.
+     *
+     * @return the pareto-fronts, best first
+     */
     public List<List<Individual>> rankPopulation(List<Individual> population) {
+        Objective[] objectives = Objective.values();
+        double[][] objectiveValues = new double[population.size()][objectives.length];
+        for (int i = 0; i < population.size(); i++) {
+            for (int k = 0; k < objectives.length; k++) {
+                objectiveValues[i][k] = population.get(i).getObjectiveValue(objectives[k]);
+            }
+        }
+        int[] ranks = NonDominatedSorter.rank(objectiveValues);
+
         List<List<Individual>> rankedPopulation = new ArrayList<>();
-        int currentRank = 1;
-        while (population.size() > 0) {
-            List<Individual> dominatingSet = findDominatingSet(population);
-            for (Individual i : dominatingSet) { // all individuals in dominating have same rank
-                i.setRank(currentRank);
+        for (int i = 0; i < population.size(); i++) {
+            Individual individual = population.get(i);
+            individual.setRank(ranks[i]);
+            while (rankedPopulation.size() < ranks[i]) {
+                rankedPopulation.add(new ArrayList<>());
             }
-            rankedPopulation.add(dominatingSet);
-            population.removeAll(dominatingSet);
-            currentRank++;
+            rankedPopulation.get(ranks[i] - 1).add(individual);
         }
+        population.clear();
         for (List<Individual> front : rankedPopulation) {
             population.addAll(front);
         }
         return rankedPopulation;
     }
 
-    private List<Individual> findDominatingSet(List<Individual> population) {
-        List<Individual> nonDominatedList = new ArrayList<>();
-        // Begin with first member of population
-//        nonDominatedList.add(population.get(0));
-        Set<Individual> dominatedSet = new HashSet<>();
-
-        for (Individual individual : population) {
-            if (dominatedSet.contains(individual)) {
-                continue;
-            }
-            // Add to nonDominated before comparison
-            nonDominatedList.add(individual);
-            // Compare individual to other individuals currently not dominated
-            for (Individual nonDominatedInd : nonDominatedList) {
-                if (dominatedSet.contains(individual) || nonDominatedInd == individual) {
-                    continue;
-                }
-                // If individual dominates a member of nonDominated, then remove it
-                else if (individual.dominates(nonDominatedInd)) {
-                    dominatedSet.add(nonDominatedInd);
-                }
-                // If individual is dominated by any member in nonDominated, it should not be included
-                else if (nonDominatedInd.dominates(individual)) {
-                    dominatedSet.add(individual);
-                    // No need to compare with the rest of the list as domination has a transitive property
-                    break;
-                }
-            }
-        }
-        nonDominatedList.removeAll(dominatedSet);
-        return nonDominatedList;
-    }
-
     private void newPopulationFromRank() {
         this.pop.clear();
         for (List<Individual> paretoFront : this.rankedPopulation) {
             assignCrowdingDistance(paretoFront);
-            if (paretoFront.size() <= Params.popSize - this.pop.size()) {
+            if (paretoFront.size() <= config.getPopSize() - this.pop.size()) {
                 this.pop.addAll(paretoFront);
             } else {
                 List<Individual> copy = new ArrayList<>(paretoFront);
                 copy.sort((a, b) -> Double.compare(b.getCrowdingDistance(), a.getCrowdingDistance()));
-                this.pop.addAll(copy.subList(0, Params.popSize - this.pop.size()));
+                this.pop.addAll(copy.subList(0, config.getPopSize() - this.pop.size()));
             }
         }
     }
 
-    private void assignCrowdingDistance(List<Individual> paretoFront) {
+    void assignCrowdingDistance(List<Individual> paretoFront) {
         for (Individual individual : paretoFront) {
             individual.setCrowdingDistance(0);
         }
@@ -298,6 +895,25 @@ public class GenAlg {
         return new Pair<>(x, y);
     }
 
+    public int getNumGenerations() {
+        return numGenerations;
+    }
+
+    /**
+     * @param numGenerations generations of the following runs, numGenerations of the config by default
+     */
+    public void setNumGenerations(int numGenerations) {
+        this.numGenerations = numGenerations;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public GAConfig getConfig() {
+        return config;
+    }
+
     public ImageHandler getImage() {
         return image;
     }
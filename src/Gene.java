@@ -3,6 +3,22 @@ package src;
 public enum Gene {
     LEFT, RIGHT, UP, DOWN, NONE;
 
+    // Cached, as values() creates a new array on every call
+    private static final Gene[] genes = values();
+
+    /**
+     * Genotypes are stored as byte arrays holding the ordinal of each gene
+     *
+     * @return the byte code of this gene in a genotype
+     */
+    public byte code() {
+        return (byte) ordinal();
+    }
+
+    public static Gene fromCode(byte code) {
+        return genes[code];
+    }
+
     public static Gene fromNeighborNumber(int neighbor) {
         Gene g;
         switch (neighbor) {
@@ -0,0 +1,10 @@
+package src;
+
+/**
+ * Receives the metrics of each generation of a GenAlg, on the thread running the GA, see GenAlg.addListener
+ */
+@FunctionalInterface
+public interface GenerationListener {
+
+    void onGeneration(GenerationMetrics metrics);
+}
@@ -0,0 +1,239 @@
+package src;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and results of one generation.
+ * Selection, ranking and crowding are wall times on the thread running the GA. Serial time is the wall time of runGA2
+ * while no offspring are being produced, see GenAlg.nextGeneration. Crossover, decoding and mutation
+ * run in parallel on the workers, so their times are summed over all offspring and may exceed the generation time.
+ * Crossover includes copying parents and mutating single genes, decoding is the full decode of crossed genotypes,
+ * and mutation is merging segments.
+ */
+public class GenerationMetrics {
+    private final int generation;
+    private long selectionNanos, rankingNanos, crowdingNanos, serialNanos;
+    private final LongAdder crossoverNanos = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder mutationNanos = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private long generationNanos;
+    private long storedBytes;
+    private double hypervolume = Double.NaN;
+    private int stagnantGenerations;
+    private double groundTruthScore = Double.NaN;
+    private int numOffspring;
+    private int[] frontSizes = new int[0];
+    private double bestEdgeValue, bestConnectivity, bestDeviation;
+
+    public GenerationMetrics(int generation) {
+        this.generation = generation;
+    }
+
+    public static String csvHeader() {
+        return "generation,generation_ms,offspring_per_second,selection_ms,crossover_ms,decode_ms,mutation_ms,"
+                + "ranking_ms,crowding_ms,serial_ms,num_fronts,first_front_size,best_edge_value,best_connectivity,"
+                + "best_deviation,cache_hits,cache_misses,stored_bytes,hypervolume,stagnant_generations,"
+                + "ground_truth_score";
+    }
+
+    public String toCsv() {
+        return String.format(Locale.ROOT, "%d,%.3f,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%d,%.1f,%.3f,%.3f,%d,%d,%d,%.6f,%d,%.6f",
+                generation, generationNanos / 1e6, getOffspringPerSecond(), selectionNanos / 1e6,
+                crossoverNanos.sum() / 1e6, decodeNanos.sum() / 1e6, mutationNanos.sum() / 1e6, rankingNanos / 1e6,
+                crowdingNanos / 1e6, serialNanos / 1e6, frontSizes.length, frontSizes.length > 0 ? frontSizes[0] : 0,
+                bestEdgeValue, bestConnectivity, bestDeviation, cacheHits.sum(), cacheMisses.sum(), storedBytes,
+                hypervolume, stagnantGenerations, groundTruthScore);
+    }
+
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"generation\":%d,\"generation_ms\":%.3f,\"offspring_per_second\":%.1f,"
+                        + "\"phases_ms\":{\"selection\":%.3f,\"crossover\":%.3f,\"decode\":%.3f,\"mutation\":%.3f,"
+                        + "\"ranking\":%.3f,\"crowding\":%.3f},\"serial_ms\":%.3f,\"front_sizes\":%s,"
+                        + "\"best\":{\"edge_value\":%.1f,\"connectivity\":%.3f,\"deviation\":%.3f},"
+                        + "\"cache\":{\"hits\":%d,\"misses\":%d},\"stored_bytes\":%d,"
+                        + "\"hypervolume\":%s,\"stagnant_generations\":%d,\"ground_truth_score\":%s}",
+                generation, generationNanos / 1e6, getOffspringPerSecond(), selectionNanos / 1e6,
+                crossoverNanos.sum() / 1e6, decodeNanos.sum() / 1e6, mutationNanos.sum() / 1e6, rankingNanos / 1e6,
+                crowdingNanos / 1e6, serialNanos / 1e6, Arrays.toString(frontSizes).replace(" ", ""),
+                bestEdgeValue, bestConnectivity, bestDeviation, cacheHits.sum(), cacheMisses.sum(), storedBytes,
+                Double.isNaN(hypervolume) ? "null" : String.format(Locale.ROOT, "%.6f", hypervolume),
+                stagnantGenerations, Double.isNaN(groundTruthScore) ? "null"
+                        : String.format(Locale.ROOT, "%.6f", groundTruthScore));
+    }
+
+    void addSelectionNanos(long nanos) {
+        selectionNanos += nanos;
+    }
+
+    void addRankingNanos(long nanos) {
+        rankingNanos += nanos;
+    }
+
+    void addCrowdingNanos(long nanos) {
+        crowdingNanos += nanos;
+    }
+
+    void setSerialNanos(long nanos) {
+        serialNanos = nanos;
+    }
+
+    void setStoredBytes(long storedBytes) {
+        this.storedBytes = storedBytes;
+    }
+
+    /**
+     * Records the state of the ConvergenceMonitor of runGA2 after the generation
+     */
+    void setConvergence(double hypervolume, int stagnantGenerations) {
+        this.hypervolume = hypervolume;
+        this.stagnantGenerations = stagnantGenerations;
+    }
+
+    void setGroundTruthScore(double groundTruthScore) {
+        this.groundTruthScore = groundTruthScore;
+    }
+
+    /**
+     * Safe to call from any thread
+     */
+    void addOffspringNanos(long crossover, long decode, long mutation) {
+        crossoverNanos.add(crossover);
+        decodeNanos.add(decode);
+        mutationNanos.add(mutation);
+    }
+
+    /**
+     * Counts a fitness cache lookup of a crossed genotype, safe to call from any thread
+     */
+    void addCacheLookup(boolean hit) {
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    /**
+     * Records the results of the generation
+     *
+     * @param generationNanos wall time of the generation
+     * @param numOffspring number of offspring produced
+     * @param rankedPopulation pareto-fronts of the generation, may be empty if the population is not ranked
+     * @param population the population after the generation
+     */
+    void finish(long generationNanos, int numOffspring, List<List<Individual>> rankedPopulation,
+                List<Individual> population) {
+        this.generationNanos = generationNanos;
+        this.numOffspring = numOffspring;
+        this.frontSizes = rankedPopulation.stream().mapToInt(List::size).toArray();
+        this.bestEdgeValue = population.stream().mapToDouble(Individual::getEdgeValue).min().orElse(Double.NaN);
+        this.bestConnectivity = population.stream().mapToDouble(Individual::getConnectivity).min().orElse(Double.NaN);
+        this.bestDeviation = population.stream().mapToDouble(Individual::getDeviation).min().orElse(Double.NaN);
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public long getGenerationNanos() {
+        return generationNanos;
+    }
+
+    public int getNumOffspring() {
+        return numOffspring;
+    }
+
+    public double getOffspringPerSecond() {
+        return generationNanos > 0 ? numOffspring / (generationNanos / 1e9) : 0;
+    }
+
+    public long getSelectionNanos() {
+        return selectionNanos;
+    }
+
+    public long getCrossoverNanos() {
+        return crossoverNanos.sum();
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos.sum();
+    }
+
+    public long getMutationNanos() {
+        return mutationNanos.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return share of crossed genotypes found in the fitness cache, 0 when there were no lookups
+     */
+    public double getCacheHitRate() {
+        long lookups = cacheHits.sum() + cacheMisses.sum();
+        return lookups > 0 ? (double) cacheHits.sum() / lookups : 0;
+    }
+
+    public long getRankingNanos() {
+        return rankingNanos;
+    }
+
+    public long getCrowdingNanos() {
+        return crowdingNanos;
+    }
+
+    /**
+     * @return wall time while no offspring were being produced, 0 for runGA
+     */
+    public long getSerialNanos() {
+        return serialNanos;
+    }
+
+    /**
+     * @return bytes allocated by the PopulationStore, 0 when the population is on the heap
+     */
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * @return normalized hypervolume of the first front, see ConvergenceMonitor, NaN for runGA
+     */
+    public double getHypervolume() {
+        return hypervolume;
+    }
+
+    public int getStagnantGenerations() {
+        return stagnantGenerations;
+    }
+
+    /**
+     * @return ground truth score of the best individual by combined fitness, see GenAlg.setGroundTruthEvaluator,
+     * NaN when not evaluated
+     */
+    public double getGroundTruthScore() {
+        return groundTruthScore;
+    }
+
+    public int[] getFrontSizes() {
+        return frontSizes;
+    }
+
+    public double getBestEdgeValue() {
+        return bestEdgeValue;
+    }
+
+    public double getBestConnectivity() {
+        return bestConnectivity;
+    }
+
+    public double getBestDeviation() {
+        return bestDeviation;
+    }
+}
@@ -0,0 +1,37 @@
+package src;
+
+/**
+ * Zobrist hash of a genotype: the XOR of a random 64 bit key for the gene at each index. Changing one gene changes
+ * the hash by two XORs, so individuals keep their hash up to date as their genes change.
+ * Keys are derived from the index and gene by a mixing function instead of a table, so they take no memory.
+ */
+public final class GenotypeHash {
+
+    private GenotypeHash() {
+    }
+
+    public static long of(byte[] genotype) {
+        long hash = 0;
+        for (int i = 0; i < genotype.length; i++) {
+            hash ^= key(i, genotype[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * @return hash after changing the gene at index from oldCode to newCode
+     */
+    public static long update(long hash, int index, byte oldCode, byte newCode) {
+        return hash ^ key(index, oldCode) ^ key(index, newCode);
+    }
+
+    /**
+     * Key of a gene code at an index, the finalizer of SplittableRandom applied to a unique number
+     */
+    private static long key(int index, byte code) {
+        long z = (5L * index + code + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
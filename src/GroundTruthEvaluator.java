@@ -0,0 +1,192 @@
+package src;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Scores segmentations against ground truth boundary images, like evaluator/run.py but on the label map, so
+ * individuals can be scored without saving them.
+ * run.py compares two boundary images both ways: a pixel below Params.evaluatorBlackThreshold in one image counts
+ * as correct if the other image has a value within Params.evaluatorColorSlack of it within
+ * Params.evaluatorPixelRange pixels in x and y. A segmentation is rendered with black boundaries on white as in
+ * ImageHandler.save type 2, so its boundary pixels are matched by ground truth values below the slack, and ground
+ * truth values below the slack are matched by its boundary pixels. Both are looked up in chessboard distance
+ * transforms, the one of each ground truth computed once.
+ * A segmentation scores the lower of the two directions, taking its best ground truth.
+ * As in run.py, black is assumed to be far enough from white that no black pixel is matched by white.
+ */
+public class GroundTruthEvaluator {
+    private final ImageHandler image;
+    private final List<GroundTruth> groundTruths = new ArrayList<>();
+
+    /**
+     * @param image image that was segmented, or a superpixel grid over it
+     * @param files ground truth boundary images of the same size as image
+     */
+    public GroundTruthEvaluator(ImageHandler image, List<File> files) throws IOException {
+        this.image = image;
+        ImageHandler pixelImage = image.getPixelImage();
+        for (File file : files) {
+            BufferedImage groundTruth = ImageHandler.readImage(file);
+            if (groundTruth.getWidth() != pixelImage.getWidth() || groundTruth.getHeight() != pixelImage.getHeight()) {
+                throw new IOException("%s is %dx%d, the image is %dx%d".formatted(file, groundTruth.getWidth(),
+                        groundTruth.getHeight(), pixelImage.getWidth(), pixelImage.getHeight()));
+            }
+            groundTruths.add(new GroundTruth(groundTruth, pixelImage));
+        }
+    }
+
+    /**
+     * Evaluator for the GT_*.jpg files next to the train image of the same name, e.g. train/118035/GT_12.jpg
+     */
+    public static GroundTruthEvaluator forTrainImage(ImageHandler image) throws IOException {
+        File directory = ImageHandler.trainImageFile(image.getName()).getParentFile();
+        File[] files = directory.listFiles(file -> file.getName().startsWith("GT_") && file.getName().endsWith(".jpg"));
+        if (files == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        Arrays.sort(files);
+        return new GroundTruthEvaluator(image, List.of(files));
+    }
+
+    /**
+     * Thread safe, so it can be used by several workers at once
+     *
+     * @return score between 0 and 1 against the best matching ground truth, 0 when there are none
+     */
+    public double evaluate(Individual individual) {
+        ImageHandler pixelImage = image.getPixelImage();
+        int[] labels = image.toPixelLabels(individual.getLabels());
+        boolean[] boundary = new boolean[labels.length];
+        int numBoundaryPixels = 0;
+        for (int p = 0; p < labels.length; p++) {
+            int x = pixelImage.getX(p);
+            int y = pixelImage.getY(p);
+            // Same boundary pixels as ImageHandler.save
+            boundary[p] = x == 0 || y == 0 || x == pixelImage.getWidth() - 1 || y == pixelImage.getHeight() - 1
+                    || labels[p] != labels[pixelImage.getNeighbor(p, 1)]
+                    || labels[p] != labels[pixelImage.getNeighbor(p, 4)];
+            if (boundary[p]) {
+                numBoundaryPixels++;
+            }
+        }
+        byte[] boundaryDistances = chessboardDistances(boundary, pixelImage.getWidth(), pixelImage.getHeight());
+
+        double best = 0;
+        for (GroundTruth groundTruth : groundTruths) {
+            // Ground truth black pixels found in the segmentation
+            int found = 0;
+            for (int p : groundTruth.matchablePixels) {
+                if (boundaryDistances[p] <= Params.evaluatorPixelRange) {
+                    found++;
+                }
+            }
+            // Segmentation boundary pixels found in the ground truth
+            int correct = 0;
+            for (int p = 0; p < boundary.length; p++) {
+                if (boundary[p] && groundTruth.distances[p] <= Params.evaluatorPixelRange) {
+                    correct++;
+                }
+            }
+            double score = Math.min((double) found / Math.max(groundTruth.numBlackPixels, 1),
+                    (double) correct / Math.max(numBoundaryPixels, 1));
+            best = Math.max(best, score);
+        }
+        return best;
+    }
+
+    /**
+     * Scores individuals in parallel
+     *
+     * @return score of each individual, in order
+     */
+    public double[] evaluate(List<Individual> individuals, Executor executor) {
+        List<CompletableFuture<Double>> scores = new ArrayList<>();
+        for (Individual individual : individuals) {
+            scores.add(CompletableFuture.supplyAsync(() -> evaluate(individual), executor));
+        }
+        return scores.stream().mapToDouble(CompletableFuture::join).toArray();
+    }
+
+    public int getNumGroundTruths() {
+        return groundTruths.size();
+    }
+
+    /**
+     * Chessboard distance from each pixel to the nearest pixel in mask, by genotype index. Distances above
+     * Params.evaluatorPixelRange are all Params.evaluatorPixelRange + 1, as only the range is checked.
+     * Computed as a distance within each row, then the nearest of those within each column.
+     */
+    private static byte[] chessboardDistances(boolean[] mask, int width, int height) {
+        int far = Params.evaluatorPixelRange + 1;
+        int[] rowDistances = new int[mask.length];
+        for (int y = 0; y < height; y++) {
+            int distance = far;
+            for (int x = 0; x < width; x++) {
+                distance = mask[GenAlg.coordsToGenotypeIndex(x, y, height)] ? 0 : Math.min(distance + 1, far);
+                rowDistances[GenAlg.coordsToGenotypeIndex(x, y, height)] = distance;
+            }
+            distance = far;
+            for (int x = width - 1; x >= 0; x--) {
+                int p = GenAlg.coordsToGenotypeIndex(x, y, height);
+                distance = mask[p] ? 0 : Math.min(distance + 1, far);
+                rowDistances[p] = Math.min(rowDistances[p], distance);
+            }
+        }
+        byte[] distances = new byte[mask.length];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                int distance = far;
+                for (int dy = Math.max(-y, 1 - far); dy < Math.min(height - y, far); dy++) {
+                    int rowDistance = rowDistances[GenAlg.coordsToGenotypeIndex(x, y + dy, height)];
+                    distance = Math.min(distance, Math.max(Math.abs(dy), rowDistance));
+                }
+                distances[GenAlg.coordsToGenotypeIndex(x, y, height)] = (byte) distance;
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * One ground truth image, reduced to what evaluate looks up
+     */
+    private static class GroundTruth {
+        private final int numBlackPixels;
+        // Black pixels that a black segmentation boundary can match, by genotype index
+        private final int[] matchablePixels;
+        // Distance to the nearest pixel that matches a segmentation boundary, see chessboardDistances
+        private final byte[] distances;
+
+        /**
+         * Reads the first band of the image, as run.py keeps the first value of each pixel
+         */
+        private GroundTruth(BufferedImage groundTruth, ImageHandler image) {
+            Raster raster = groundTruth.getRaster();
+            boolean[] matchesBoundary = new boolean[image.getNumPixels()];
+            int[] matchable = new int[image.getNumPixels()];
+            int numMatchable = 0;
+            int numBlack = 0;
+            for (int p = 0; p < matchesBoundary.length; p++) {
+                int value = raster.getSample(image.getX(p), image.getY(p), 0);
+                // A boundary pixel is 0, so it matches values below the slack both ways
+                matchesBoundary[p] = value < Params.evaluatorColorSlack;
+                if (value < Params.evaluatorBlackThreshold) {
+                    numBlack++;
+                    if (matchesBoundary[p]) {
+                        matchable[numMatchable++] = p;
+                    }
+                }
+            }
+            this.numBlackPixels = numBlack;
+            this.matchablePixels = Arrays.copyOf(matchable, numMatchable);
+            this.distances = chessboardDistances(matchesBoundary, image.getWidth(), image.getHeight());
+        }
+    }
+}
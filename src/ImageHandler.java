@@ -1,67 +1,433 @@
 package src;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.WritableRaster;
+import java.awt.image.*;
 import java.io.*;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
 
 public class ImageHandler {
     private final int width, height;
     private final String name;
     private BufferedImage image;
-    private Pixel[][] pixels; // To hold the actual image
+    // The actual image, stored as one array per CieLab channel and indexed by genotype index
+    private final float[] l, a, b;
+    // Bit (n - 1) is set when neighbor number n exists, see findNeighborMask
+    private final byte[] neighborMask;
+    // Genotype index offset to each neighbor number, index 0 is the pixel itself
+    private final int[] neighborOffsets;
+    // Legal genes for each combination of the four cardinal neighbor bits
+    private static final Gene[][] validGenesByMask = createValidGenesTable();
+    // Color distance from each pixel to its right, down, up-right and down-right neighbors, 4 entries per pixel.
+    // The other four neighbor numbers are the same edges seen from the other end, see getNeighborDistance
+    private final float[] neighborDistances;
+    // Neighbor number stored in each slot of neighborDistances
+    private static final int[] storedNeighbors = {1, 4, 5, 6};
+    // Slot of neighborDistances holding each neighbor number, from the neighbor's side for numbers 2, 3, 7 and 8
+    private static final int[] distanceSlots = {-1, 0, 0, 1, 1, 2, 3, 3, 2};
+    private MinSpanTree minSpanTree; // Created on first use
+    private int[] rgb; // Colors of image by row, read on first use
+    // Rasters for rendering segmentations, reused once their image is written. Bounded by the images being written
+    private final Queue<int[]> rasterPool = new ConcurrentLinkedQueue<>();
+
+    // In a superpixel grid, each pixel of this image is a cell of cellSize x cellSize pixels of pixelImage, and
+    // l, a and b are the mean colors of the cells. The arrays below hold the exact sums over the pixels of each
+    // cell, so objectives are the same as on pixelImage. All of them are null for a plain image.
+    private final ImageHandler pixelImage;
+    private final int cellSize;
+    private final int[] areas; // Number of pixels in each cell
+    private final double[] sumL, sumA, sumB;
+    // Number of neighboring pixel pairs from each cell to each neighbor cell, and their truncated summed distance,
+    // 8 entries per cell indexed by neighbor number - 1
+    private final int[] boundaryLengths, boundaryContrasts;
 
     /**
      * @param imageName name of directory in train folder containing image file called 'Test image.jpg'
      */
     public ImageHandler(String imageName) throws IOException {
-        File file = new File("train/" + imageName + "/Test image.jpg");
-        InputStream input = new FileInputStream(file);
-        this.image = ImageIO.read(input);
+        this(imageName, readTrainImage(imageName));
+    }
+
+    /**
+     * @param imageName name used for the output directory of this image
+     * @param image image to segment
+     */
+    public ImageHandler(String imageName, BufferedImage image) {
+        this.image = image;
 
         this.name = imageName;
         this.width = image.getWidth();
         this.height = image.getHeight();
+        this.neighborOffsets = createNeighborOffsets(height);
 
         // Add pixels
-        this.pixels = new Pixel[width][height];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                Color color = new Color(image.getRGB(x, y));
-                CieLab cieLab = CieLab.fromRGB(color.getRed(), color.getGreen(), color.getBlue());
-                Pixel pixel = new Pixel(cieLab, x, y);
-                this.pixels[x][y] = pixel;
+        int numPixels = width * height;
+        this.l = new float[numPixels];
+        this.a = new float[numPixels];
+        this.b = new float[numPixels];
+        CieLab.fromRGB(readRGB(image), this.l, this.a, this.b);
+        this.neighborMask = createNeighborMasks();
+        this.neighborDistances = createNeighborDistances();
+
+        this.pixelImage = null;
+        this.cellSize = 1;
+        this.areas = null;
+        this.sumL = this.sumA = this.sumB = null;
+        this.boundaryLengths = this.boundaryContrasts = null;
+    }
+
+    /**
+     * Superpixel grid over pixelImage, see createSuperpixelGrid
+     */
+    private ImageHandler(ImageHandler pixelImage, int cellSize) {
+        this.image = pixelImage.image;
+        this.name = pixelImage.name;
+        this.pixelImage = pixelImage;
+        this.cellSize = cellSize;
+        this.width = (pixelImage.width + cellSize - 1) / cellSize;
+        this.height = (pixelImage.height + cellSize - 1) / cellSize;
+        this.neighborOffsets = createNeighborOffsets(height);
+
+        int numCells = width * height;
+        this.l = new float[numCells];
+        this.a = new float[numCells];
+        this.b = new float[numCells];
+        this.areas = new int[numCells];
+        this.sumL = new double[numCells];
+        this.sumA = new double[numCells];
+        this.sumB = new double[numCells];
+        this.boundaryLengths = new int[8 * numCells];
+        this.boundaryContrasts = new int[8 * numCells];
+        IntStream.range(0, numCells).parallel().forEach(this::aggregateCell);
+        this.neighborMask = createNeighborMasks();
+        // Distances between mean colors, used to build the minimal span tree and to pick segments to merge
+        this.neighborDistances = createNeighborDistances();
+    }
+
+    /**
+     * Grid of square superpixels over this image, to segment with a genotype of one gene per cell.
+     * Individuals of the grid have the same objective values as the same segmentation of this image, and are
+     * saved as one, see toPixelIndividual.
+     *
+     * @param cellSize width and height of each cell in pixels, cells at the right and bottom may be smaller
+     */
+    public ImageHandler createSuperpixelGrid(int cellSize) {
+        return new ImageHandler(this, cellSize);
+    }
+
+    /**
+     * Sums the pixels of a cell, and the pixel pairs between it and its neighbor cells
+     */
+    private void aggregateCell(int cell) {
+        int firstX = getX(cell) * cellSize;
+        int firstY = getY(cell) * cellSize;
+        for (int x = firstX; x < Math.min(firstX + cellSize, pixelImage.width); x++) {
+            for (int y = firstY; y < Math.min(firstY + cellSize, pixelImage.height); y++) {
+                int p = GenAlg.coordsToGenotypeIndex(x, y, pixelImage.height);
+                float pixelL = pixelImage.l[p];
+                float pixelA = pixelImage.a[p];
+                float pixelB = pixelImage.b[p];
+                areas[cell]++;
+                sumL[cell] += pixelL;
+                sumA[cell] += pixelA;
+                sumB[cell] += pixelB;
+                for (int n = 1; n <= 8; n++) {
+                    int neighbor = pixelImage.getNeighbor(p, n);
+                    if (neighbor < 0) {
+                        continue;
+                    }
+                    int cellDx = pixelImage.getX(neighbor) / cellSize - x / cellSize;
+                    int cellDy = pixelImage.getY(neighbor) / cellSize - y / cellSize;
+                    if (cellDx != 0 || cellDy != 0) {
+                        int slot = 8 * cell + neighborNumber(cellDx, cellDy) - 1;
+                        boundaryLengths[slot]++;
+                        boundaryContrasts[slot] += (int) pixelImage.getNeighborDistance(p, n);
+                    }
+                }
             }
         }
-        // Update neighbors
+        l[cell] = (float) (sumL[cell] / areas[cell]);
+        a[cell] = (float) (sumA[cell] / areas[cell]);
+        b[cell] = (float) (sumB[cell] / areas[cell]);
+    }
+
+    /**
+     * @return neighbor number in the direction of a unit step, see createNeighborOffsets
+     */
+    private static int neighborNumber(int dx, int dy) {
+        if (dy == 0) {
+            return dx > 0 ? 1 : 2;
+        } else if (dx == 0) {
+            return dy < 0 ? 3 : 4;
+        } else if (dx > 0) {
+            return dy < 0 ? 5 : 6;
+        } else {
+            return dy < 0 ? 7 : 8;
+        }
+    }
+
+    /**
+     * Carries a segmentation of a superpixel grid over to its pixel image, with a minimal span tree genotype for
+     * each segment. Segmentations of a plain image are returned as is.
+     */
+    public Individual toPixelIndividual(Individual individual) {
+        if (pixelImage == null) {
+            return individual;
+        }
+        return new Individual(pixelImage,
+                pixelImage.getMinSpanTree().createRegionGenotype(toPixelLabels(individual.getLabels())));
+    }
+
+    /**
+     * @param labels label of each pixel of this image
+     * @return label of each pixel of the pixel image, the same labels for a plain image
+     */
+    public int[] toPixelLabels(int[] labels) {
+        if (pixelImage == null) {
+            return labels;
+        }
+        int[] pixelLabels = new int[pixelImage.getNumPixels()];
+        for (int p = 0; p < pixelLabels.length; p++) {
+            int cell = GenAlg.coordsToGenotypeIndex(pixelImage.getX(p) / cellSize, pixelImage.getY(p) / cellSize,
+                    height);
+            pixelLabels[p] = labels[cell];
+        }
+        return pixelLabels;
+    }
+
+    /**
+     * @return the image the pixels of a superpixel grid are made of, or this image
+     */
+    public ImageHandler getPixelImage() {
+        return pixelImage == null ? this : pixelImage;
+    }
+
+    private static int[] createNeighborOffsets(int height) {
+        // Neighbor numbers: 1 right, 2 left, 3 up, 4 down, 5 up-right, 6 down-right, 7 up-left, 8 down-left
+        return new int[]{
+                0, height, -height, -1, 1, height - 1, height + 1, -height - 1, -height + 1
+        };
+    }
+
+    private byte[] createNeighborMasks() {
+        byte[] masks = new byte[width * height];
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
-                pixels[x][y].setNeighbors(findPixelNeighbors(x, y));
+                masks[GenAlg.coordsToGenotypeIndex(x, y, height)] = findNeighborMask(x, y);
             }
         }
+        return masks;
     }
 
     /**
-     * Copy all pixels of a bufferedImage, so original instance remains unedited
-     * @param bi original image
-     * @return copy of bufferedImage
+     * Computes the color distance of every pixel edge once, in parallel, so no distance is recomputed during a run
      */
-    private static BufferedImage deepCopy(BufferedImage bi) {
-        ColorModel cm = bi.getColorModel();
-        boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
-        WritableRaster raster = bi.copyData(null);
-        return new BufferedImage(cm, raster, isAlphaPremultiplied, null);
+    private float[] createNeighborDistances() {
+        float[] distances = new float[storedNeighbors.length * getNumPixels()];
+        IntStream.range(0, getNumPixels()).parallel().forEach(p -> {
+            for (int slot = 0; slot < storedNeighbors.length; slot++) {
+                int neighbor = getNeighbor(p, storedNeighbors[slot]);
+                if (neighbor != -1) {
+                    distances[storedNeighbors.length * p + slot] = (float) computeDistance(p, neighbor);
+                }
+            }
+        });
+        return distances;
     }
+
+    /**
+     * Reads all pixels of an image as packed 0xRRGGBB colors, in genotype index order.
+     * Byte and int rasters, which ImageIO gives for most jpg and png images, are read directly from their data
+     * buffer. Other images go through the color model with a single bulk getRGB.
+     */
+    private static int[] readRGB(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] rgb = new int[width * height];
+        WritableRaster raster = image.getRaster();
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+        switch (image.getType()) {
+            case BufferedImage.TYPE_3BYTE_BGR -> {
+                PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+                DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+                byte[] data = buffer.getData();
+                int stride = sampleModel.getScanlineStride();
+                int pixelStride = sampleModel.getPixelStride();
+                int[] bandOffsets = sampleModel.getBandOffsets(); // Red, green and blue
+                for (int x = 0; x < width; x++) {
+                    for (int y = 0; y < height; y++) {
+                        int offset = buffer.getOffset() + (y - translateY) * stride + (x - translateX) * pixelStride;
+                        rgb[GenAlg.coordsToGenotypeIndex(x, y, height)] = (data[offset + bandOffsets[0]] & 0xFF) << 16
+                                | (data[offset + bandOffsets[1]] & 0xFF) << 8
+                                | (data[offset + bandOffsets[2]] & 0xFF);
+                    }
+                }
+            }
+            case BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB -> {
+                SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+                int[] data = buffer.getData();
+                int stride = sampleModel.getScanlineStride();
+                for (int x = 0; x < width; x++) {
+                    for (int y = 0; y < height; y++) {
+                        rgb[GenAlg.coordsToGenotypeIndex(x, y, height)] =
+                                data[buffer.getOffset() + (y - translateY) * stride + (x - translateX)];
+                    }
+                }
+            }
+            default -> {
+                int[] rows = image.getRGB(0, 0, width, height, null, 0, width);
+                for (int x = 0; x < width; x++) {
+                    for (int y = 0; y < height; y++) {
+                        rgb[GenAlg.coordsToGenotypeIndex(x, y, height)] = rows[y * width + x];
+                    }
+                }
+            }
+        }
+        return rgb;
+    }
+
+    /**
+     * @return this image at half the width and height, rounded up. Each pixel is the mean color of a 2x2 block.
+     * A superpixel grid is downsampled as its pixel image, keeping the cell size.
+     */
+    public ImageHandler downsample() {
+        if (pixelImage != null) {
+            return pixelImage.downsample().createSuperpixelGrid(cellSize);
+        }
+        int halfWidth = (width + 1) / 2;
+        int halfHeight = (height + 1) / 2;
+        int[] rgb = readRGB(image);
+        int[] rows = new int[halfWidth * halfHeight];
+        for (int x = 0; x < halfWidth; x++) {
+            for (int y = 0; y < halfHeight; y++) {
+                int red = 0, green = 0, blue = 0, count = 0;
+                for (int blockX = 2 * x; blockX < Math.min(2 * x + 2, width); blockX++) {
+                    for (int blockY = 2 * y; blockY < Math.min(2 * y + 2, height); blockY++) {
+                        int color = rgb[GenAlg.coordsToGenotypeIndex(blockX, blockY, height)];
+                        red += (color >> 16) & 0xFF;
+                        green += (color >> 8) & 0xFF;
+                        blue += color & 0xFF;
+                        count++;
+                    }
+                }
+                rows[y * halfWidth + x] = (red + count / 2) / count << 16
+                        | (green + count / 2) / count << 8
+                        | (blue + count / 2) / count;
+            }
+        }
+        BufferedImage half = new BufferedImage(halfWidth, halfHeight, BufferedImage.TYPE_INT_RGB);
+        half.setRGB(0, 0, halfWidth, halfHeight, rows, 0, halfWidth);
+        return new ImageHandler(name, half);
+    }
+
+    public static BufferedImage readTrainImage(String imageName) throws IOException {
+        return readImage(trainImageFile(imageName));
+    }
+
+    public static File trainImageFile(String imageName) {
+        return new File("train/" + imageName + "/Test image.jpg");
+    }
+
+    public static BufferedImage readImage(File file) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            return ImageIO.read(input);
+        }
+    }
+
+    /**
+     * Reads the size of an image from its header, without decoding it
+     */
+    public static Dimension readImageSize(File file) throws IOException {
+        return readWithReader(file, reader -> new Dimension(reader.getWidth(0), reader.getHeight(0)));
+    }
+
+    /**
+     * Decodes only a region of an image, so memory depends on the size of the region rather than the image
+     */
+    public static BufferedImage readImageRegion(File file, Rectangle region) throws IOException {
+        return readWithReader(file, reader -> {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(region);
+            return reader.read(0, param);
+        });
+    }
+
+    private interface ReaderFunction<T> {
+        T apply(ImageReader reader) throws IOException;
+    }
+
+    private static <T> T readWithReader(File file, ReaderFunction<T> function) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? Collections.emptyIterator() : ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader for " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return function.apply(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Renders and writes one segmentation type, see saveAll
+     *
+     * @param segmentationType 1 (green on image), 2 (black on white) or 3 (colors)
+     */
     public void save(Individual solution, int segmentationType, int individualID) {
         if (segmentationType != 1 && segmentationType != 2 && segmentationType != 3) {
             throw new IllegalArgumentException("segmentationType must be either 1 (green on image), 2 (black on white) or 3 (colors)");
         }
+        if (pixelImage != null) {
+            pixelImage.save(toPixelIndividual(solution), segmentationType, individualID);
+            return;
+        }
+        BufferedImage outImage = render(solution, segmentationType)[segmentationType - 1];
+        try {
+            ImageWriterQueue.writePng(outImage, getOutputFile(solution, segmentationType));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            releaseRaster(outImage);
+        }
+    }
+
+    /**
+     * Renders all three segmentation types in one pass and queues them to be written
+     *
+     * @return completed once all three images are written
+     */
+    public CompletableFuture<Void> saveAll(Individual solution, int individualID, ImageWriterQueue writer) {
+        if (pixelImage != null) {
+            return pixelImage.saveAll(toPixelIndividual(solution), individualID, writer);
+        }
+        BufferedImage[] outImages = render(solution, 1, 2, 3);
+        CompletableFuture<?>[] written = new CompletableFuture<?>[outImages.length];
+        for (int i = 0; i < outImages.length; i++) {
+            BufferedImage outImage = outImages[i];
+            written[i] = writer.write(outImage, getOutputFile(solution, i + 1), () -> releaseRaster(outImage));
+        }
+        return CompletableFuture.allOf(written);
+    }
+
+    private File getOutputFile(Individual solution, int segmentationType) {
         Path directory = Path.of(Params.outputDirectory, name, "type" + Integer.toString(segmentationType));
         String filename = "t" + segmentationType
                 + "_s%02d".formatted(solution.getNumSegments())
@@ -70,54 +436,100 @@ public class ImageHandler {
                 + "_c%04.0f".formatted(solution.getConnectivity())
                 + "_d%05.0f".formatted(solution.getDeviation())
                 + ".png";
-        File output = new File( directory + "/" + filename);
-        BufferedImage outImage = deepCopy(image);
-        // Copy contents of image into outImage
-
-
-        int outlineColor;
-        if (segmentationType == 1) {
-            outlineColor = new Color(0, 255, 0).getRGB();
-            for (Segment segment : solution.getSegments()) {
-                for (Pixel pixel : segment.getPixels()) {
-                    if (segment.isPixelAtEdge(pixel)) {
-                        outImage.setRGB(pixel.x, pixel.y, outlineColor);
-                    }
+        return directory.resolve(filename).toFile();
+    }
+
+    /**
+     * Draws segmentation types in a single pass over the label map, into rasters from the raster pool.
+     * A pixel is on a segment boundary if it is at the border of the image, or its right or down neighbor is in
+     * another segment. Type 1 draws boundaries green on the image, type 2 black on white, and type 3 fills each
+     * segment with a random light color.
+     *
+     * @param types segmentation types to draw
+     * @return image of each type at index type - 1, null for types not drawn. Their rasters should be given back
+     * with releaseRaster.
+     */
+    private BufferedImage[] render(Individual solution, int... types) {
+        int[] labels = solution.getLabels();
+        int[][] rasters = new int[3][];
+        BufferedImage[] outImages = new BufferedImage[3];
+        for (int type : types) {
+            rasters[type - 1] = borrowRaster();
+            outImages[type - 1] = createImage(rasters[type - 1]);
+        }
+        int[] original = rasters[0] != null ? getRGB() : null;
+        int[] segmentColors = rasters[2] != null ? createSegmentColors(solution, labels) : null;
+        int green = 0x00FF00;
+        int black = 0x000000;
+        int white = 0xFFFFFF;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                int p = GenAlg.coordsToGenotypeIndex(x, y, height);
+                int r = y * width + x;
+                boolean atEdge = x == 0 || y == 0 || x == width - 1 || y == height - 1
+                        || labels[p] != labels[p + neighborOffsets[1]] || labels[p] != labels[p + neighborOffsets[4]];
+                if (rasters[0] != null) {
+                    rasters[0][r] = atEdge ? green : original[r];
                 }
-            }
-        } else if (segmentationType == 2) {
-            outlineColor = new Color(0, 0, 0).getRGB();
-            int fillColor = new Color(255, 255, 255).getRGB();
-            for (Segment segment : solution.getSegments()) {
-                for (Pixel pixel : segment.getPixels()) {
-                    if (segment.isPixelAtEdge(pixel)) {
-                        outImage.setRGB(pixel.x, pixel.y, outlineColor);
-                    } else {
-                        outImage.setRGB(pixel.x, pixel.y, fillColor);
-                    }
+                if (rasters[1] != null) {
+                    rasters[1][r] = atEdge ? black : white;
                 }
-            }
-        } else {
-            Random rand = new Random();
-            for (Segment segment : solution.getSegments()) {
-                // Select random color for segment
-                final float hue = rand.nextFloat();
-                // Saturation between 0.1 and 0.3
-                final float saturation = (rand.nextInt(2000) + 1000) / 10000f;
-                final float luminance = 0.9f;
-                int fillColor = Color.getHSBColor(hue, saturation, luminance).getRGB();
-                for (Pixel pixel : segment.getPixels()) {
-                    outImage.setRGB(pixel.x, pixel.y, fillColor);
+                if (rasters[2] != null) {
+                    rasters[2][r] = segmentColors[labels[p]];
                 }
             }
         }
-        // Finished drawing all pixels, save image
-        try {
-            ImageIO.write(outImage, "png", output);
-        } catch (
-                IOException e) {
-            e.printStackTrace();
+        return outImages;
+    }
+
+    /**
+     * @return random light color of each label, in the order of the segments
+     */
+    private static int[] createSegmentColors(Individual solution, int[] labels) {
+        List<Segment> segments = solution.getSegments();
+        int[] colors = new int[segments.stream().mapToInt(Segment::getLabel).max().orElse(-1) + 1];
+        Random rand = new Random();
+        for (Segment segment : segments) {
+            // Select random color for segment
+            final float hue = rand.nextFloat();
+            // Saturation between 0.1 and 0.3
+            final float saturation = (rand.nextInt(2000) + 1000) / 10000f;
+            final float luminance = 0.9f;
+            colors[segment.getLabel()] = Color.getHSBColor(hue, saturation, luminance).getRGB() & 0xFFFFFF;
+        }
+        return colors;
+    }
+
+    /**
+     * @return colors of the image by row, read once
+     */
+    private synchronized int[] getRGB() {
+        if (rgb == null) {
+            rgb = image.getRGB(0, 0, width, height, null, 0, width);
         }
+        return rgb;
+    }
+
+    private int[] borrowRaster() {
+        int[] raster = rasterPool.poll();
+        return raster != null ? raster : new int[width * height];
+    }
+
+    /**
+     * Gives the raster of an image from render back to the pool, the image must no longer be used
+     */
+    private void releaseRaster(BufferedImage outImage) {
+        rasterPool.add(((DataBufferInt) outImage.getRaster().getDataBuffer()).getData());
+    }
+
+    /**
+     * RGB image drawing straight into raster, by row
+     */
+    private BufferedImage createImage(int[] raster) {
+        DirectColorModel colorModel = new DirectColorModel(24, 0xFF0000, 0x00FF00, 0x0000FF);
+        WritableRaster writableRaster = Raster.createPackedRaster(new DataBufferInt(raster, raster.length), width,
+                height, width, colorModel.getMasks(), null);
+        return new BufferedImage(colorModel, writableRaster, false, null);
     }
 
     public static void deleteAllFilesInDir(Path path){
@@ -126,34 +538,204 @@ public class ImageHandler {
                 file.delete();
     }
 
-    private Map<Integer, Pixel> findPixelNeighbors(int x, int y) {
-        Map<Integer, Pixel> neighbors = new HashMap<>();
+    private byte findNeighborMask(int x, int y) {
+        int mask = 0;
         // Check whether the pixel is at the edge, add neighbors accordingly.
         if (x < width - 1) {
-            neighbors.put(1, pixels[x + 1][y]);
+            mask |= 1;
         }
         if (x > 0) {
-            neighbors.put(2, pixels[x - 1][y]);
+            mask |= 1 << 1;
         }
         if (y > 0) {
-            neighbors.put(3, pixels[x][y - 1]);
+            mask |= 1 << 2;
         }
         if (y < height - 1) {
-            neighbors.put(4, pixels[x][y + 1]);
+            mask |= 1 << 3;
         }
         if (x < width - 1 && y > 0) {
-            neighbors.put(5, pixels[x + 1][y - 1]);
+            mask |= 1 << 4;
         }
         if (x < width - 1 && y < height - 1) {
-            neighbors.put(6, pixels[x + 1][y + 1]);
+            mask |= 1 << 5;
         }
         if (x > 0 && y > 0) {
-            neighbors.put(7, pixels[x - 1][y - 1]);
+            mask |= 1 << 6;
         }
         if (x > 0 && y < height - 1) {
-            neighbors.put(8, pixels[x - 1][y + 1]);
+            mask |= 1 << 7;
+        }
+        return (byte) mask;
+    }
+
+    private static Gene[][] createValidGenesTable() {
+        Gene[][] table = new Gene[16][];
+        for (int mask = 0; mask < 16; mask++) {
+            List<Gene> genes = new ArrayList<>();
+            for (int neighbor = 1; neighbor <= 4; neighbor++) {
+                if ((mask & (1 << (neighbor - 1))) != 0) {
+                    genes.add(Gene.fromNeighborNumber(neighbor));
+                }
+            }
+            table[mask] = genes.toArray(new Gene[0]);
+        }
+        return table;
+    }
+
+    /**
+     * @param index genotype index of pixel
+     * @param neighbor neighbor number, 1-4 are cardinal and 5-8 are diagonal
+     * @return whether the pixel has the given neighbor inside the image
+     */
+    public boolean hasNeighbor(int index, int neighbor) {
+        return (neighborMask[index] & (1 << (neighbor - 1))) != 0;
+    }
+
+    /**
+     * @param index genotype index of pixel
+     * @param neighbor neighbor number, 1-4 are cardinal and 5-8 are diagonal
+     * @return genotype index of the neighbor, or -1 if it is outside the image
+     */
+    public int getNeighbor(int index, int neighbor) {
+        return hasNeighbor(index, neighbor) ? index + neighborOffsets[neighbor] : -1;
+    }
+
+    /**
+     * @return genotype index of the pixel the gene points to, or -1 if it points outside the image
+     */
+    public int getNeighborByGene(int index, Gene gene) {
+        return switch (gene) {
+            case RIGHT -> getNeighbor(index, 1);
+            case LEFT -> getNeighbor(index, 2);
+            case UP -> getNeighbor(index, 3);
+            case DOWN -> getNeighbor(index, 4);
+            case NONE -> index;
+        };
+    }
+
+    /**
+     * Genes pointing to a cardinal neighbor inside the image. Shared table, must not be modified.
+     */
+    public Gene[] getValidGenes(int index) {
+        return validGenesByMask[neighborMask[index] & 0xF];
+    }
+
+    /**
+     * Euclidean CieLab distance between two pixels
+     */
+    private double computeDistance(int i, int j) {
+        return CieLab.computeDistance(l[i], a[i], b[i], l[j], a[j], b[j]);
+    }
+
+    /**
+     * Precomputed CieLab distance between a pixel and one of its neighbors
+     *
+     * @param index genotype index of pixel
+     * @param neighbor neighbor number, which must be inside the image
+     */
+    public float getNeighborDistance(int index, int neighbor) {
+        int owner = neighbor == 1 || neighbor == 4 || neighbor == 5 || neighbor == 6
+                ? index : index + neighborOffsets[neighbor];
+        return neighborDistances[storedNeighbors.length * owner + distanceSlots[neighbor]];
+    }
+
+    /**
+     * Number of pixels of the image that a pixel of this image stands for, 1 unless this is a superpixel grid
+     */
+    public int getArea(int index) {
+        return areas == null ? 1 : areas[index];
+    }
+
+    public double getSumL(int index) {
+        return sumL == null ? l[index] : sumL[index];
+    }
+
+    public double getSumA(int index) {
+        return sumA == null ? a[index] : sumA[index];
+    }
+
+    public double getSumB(int index) {
+        return sumB == null ? b[index] : sumB[index];
+    }
+
+    /**
+     * @param index genotype index of pixel
+     * @param neighbor neighbor number, which must be inside the image
+     * @return number of neighboring pixel pairs between the pixel and its neighbor, 1 unless this is a superpixel grid
+     */
+    public int getBoundaryLength(int index, int neighbor) {
+        return boundaryLengths == null ? 1 : boundaryLengths[8 * index + neighbor - 1];
+    }
+
+    /**
+     * @param index genotype index of pixel
+     * @param neighbor neighbor number, which must be inside the image
+     * @return summed distance of the neighboring pixel pairs between the pixel and its neighbor, each truncated
+     */
+    public int getBoundaryContrast(int index, int neighbor) {
+        return boundaryContrasts == null
+                ? (int) getNeighborDistance(index, neighbor)
+                : boundaryContrasts[8 * index + neighbor - 1];
+    }
+
+    /**
+     * @return summed distance from the pixels a pixel of this image stands for to a color
+     */
+    public double computeDeviation(int index, CieLab centroid) {
+        if (pixelImage == null) {
+            return CieLab.computeDistance(l[index], a[index], b[index], centroid.l, centroid.a, centroid.b);
+        }
+        double deviation = 0;
+        int firstX = getX(index) * cellSize;
+        int firstY = getY(index) * cellSize;
+        for (int x = firstX; x < Math.min(firstX + cellSize, pixelImage.width); x++) {
+            for (int y = firstY; y < Math.min(firstY + cellSize, pixelImage.height); y++) {
+                deviation += pixelImage.computeDeviation(GenAlg.coordsToGenotypeIndex(x, y, pixelImage.height),
+                        centroid);
+            }
         }
-        return neighbors;
+        return deviation;
+    }
+
+    /**
+     * @return whether each pixel of this image is a cell of another image, see createSuperpixelGrid
+     */
+    public boolean isSuperpixelGrid() {
+        return pixelImage != null;
+    }
+
+    public int getX(int index) {
+        return index / height;
+    }
+
+    public int getY(int index) {
+        return index % height;
+    }
+
+    public float getL(int index) {
+        return l[index];
+    }
+
+    public float getA(int index) {
+        return a[index];
+    }
+
+    public float getB(int index) {
+        return b[index];
+    }
+
+    public int getNumPixels() {
+        return l.length;
+    }
+
+    /**
+     * @return minimal span tree of this image, computed on the first call and shared by all later callers
+     */
+    public synchronized MinSpanTree getMinSpanTree() {
+        if (minSpanTree == null) {
+            minSpanTree = new MinSpanTree(this);
+        }
+        return minSpanTree;
     }
 
     public int getWidth() {
@@ -171,8 +753,4 @@ public class ImageHandler {
     public BufferedImage getBufferedImage() {
         return image;
     }
-
-    public Pixel[][] getPixels() {
-        return pixels;
-    }
 }
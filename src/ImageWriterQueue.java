@@ -0,0 +1,75 @@
+package src;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and writes PNG images on background threads, so the GA threads only render.
+ * At most capacity images wait to be written. When the queue is full, the submitting thread writes the image
+ * itself, which keeps the rendered images waiting in memory bounded.
+ */
+public class ImageWriterQueue {
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param numThreads threads encoding images
+     * @param capacity images waiting to be written, at most
+     */
+    public ImageWriterQueue(int numThreads, int capacity) {
+        this.executor = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity), runnable -> {
+                    Thread thread = new Thread(runnable, "image-writer");
+                    thread.setDaemon(true); // Never keeps the JVM alive
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Writes image to file as a PNG
+     *
+     * @param onWritten run after the image is written, or failed to be, e.g. to reuse its raster
+     * @return completed once the image is written
+     */
+    public CompletableFuture<Void> write(BufferedImage image, File file, Runnable onWritten) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                writePng(image, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                onWritten.run();
+            }
+        }, executor);
+    }
+
+    /**
+     * Writes image to file as a PNG, compressed with deflate level Params.pngCompressionLevel
+     */
+    public static void writePng(BufferedImage image, File file) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed()) {
+            // Quality 1 is the fastest and largest, 0 the slowest and smallest
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(1 - Params.pngCompressionLevel / 9f);
+        }
+        file.delete(); // The output stream does not truncate an existing file
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -6,16 +6,24 @@ import java.util.*;
  * A single segmentation
  */
 public class Individual {
-    private final Random rand = new Random();
-    private List<Gene> genotype;
+    private static final int RELABELED = -1; // Temporary label of pixels visited by mutateGene
+    private byte[] genotype; // One Gene code per pixel, see Gene.code()
+    private long genotypeHash; // Updated with every gene change, see GenotypeHash
     private final ImageHandler image;
 
     private int rank;
     private int numSegments; // Number of segments
     private int prevMergeableSegments = 0; // number of segments that should be merged, before previous merge
-    private List<Segment> segments = new ArrayList<>();
+    // Segments indexed by label. Labels freed by mutateGene are null until reused
+    private List<Segment> segmentsByLabel = new ArrayList<>();
+    private final Deque<Integer> freeLabels = new ArrayDeque<>();
+    private int[] labels; // Segment label of each pixel, indexed by genotype index
+    private long decodeNanos; // Time spent in the last call to createSegments
     private double deviation, edgeValue, connectivity; // The three objectives to optimize
     private double crowdingDistance;
+    // While stored, the genotype is only kept in the store and nothing is decoded, see storeIn
+    private PopulationStore store;
+    private int slot;
 
     public Individual(ImageHandler image, int numSegments) {
         this.numSegments = numSegments;
@@ -24,115 +32,143 @@ public class Individual {
         createSegments();
     }
 
-    public Individual(ImageHandler image, List<Gene> genotype) {
+    public Individual(ImageHandler image, byte[] genotype) {
+        this(image, genotype, GenotypeHash.of(genotype));
+    }
+
+    /**
+     * @param genotypeHash hash of genotype, see GenotypeHash
+     */
+    Individual(ImageHandler image, byte[] genotype, long genotypeHash) {
         this.image = image;
         this.genotype = genotype;
+        this.genotypeHash = genotypeHash;
         createSegments();
     }
 
     /**
-     * Uses Prims algorithm to construct a minimal span tree
+     * Copies the genotype and decoded segments of another individual, so it can be mutated without decoding
+     *
+     * @param other individual to copy, must not be modified while copying
      */
-    public void generateMinSpanTree() {
-        int randX = rand.nextInt(image.getWidth());
-        int randY = rand.nextInt(image.getHeight());
-        int totalNodes = image.getWidth() * image.getHeight();
-
-        // Initialize genotype to only point at itself
-        this.genotype = new ArrayList<>();
-        for (int i = 0; i < totalNodes; i++) {
-            this.genotype.add(Gene.NONE);
-        }
-        // Initialize priorityQueue of Edges and list of visitedNodes
-        PriorityQueue<Edge> priorityQueue = new PriorityQueue<>();
-        List<Edge> createdEdges = new ArrayList<>();
-        Set<Pixel> visitedNodes = new HashSet<>(); // Use hashSet because we want to test whether it contains
-        // Initial choice of pixel is randomized
-        Pixel current = image.getPixels()[randX][randY];
-        // Make sure that all nodes are visited once
-        while (visitedNodes.size() < totalNodes) {
-            if (!visitedNodes.contains(current)) {
-                // Add to priorityQueue if not already there
-                visitedNodes.add(current);
-                Pixel finalCurrent = current;
-                List<Edge> edges = Arrays.stream(new Gene[]{Gene.RIGHT, Gene.LEFT, Gene.UP, Gene.DOWN})
-                        .map(current::getNeighborByGene)
-                        .filter(Objects::nonNull)
-                        .map(neighbor -> new Edge(finalCurrent, neighbor)).toList();
-                priorityQueue.addAll(edges);
-            }
-            // Get current best edge (measured in RGB-distance between pixels)
-            Edge e = priorityQueue.poll();
-            if (!visitedNodes.contains(e.to)) {
-                // Set genotype to the corresponding gene to get from pixel to pixel
-                updateGenotype(e.from, e.to);
-                createdEdges.add(e);
-            }
-            current = e.to;
+    public Individual(Individual other) {
+        this.image = other.image;
+        this.genotypeHash = other.genotypeHash;
+        if (other.genotype == null) { // Stored, so there are no segments to copy
+            this.genotype = other.getGenotype();
+            createSegments();
+            return;
+        }
+        this.genotype = other.genotype.clone();
+        this.labels = other.labels.clone();
+        this.numSegments = other.numSegments;
+        for (Segment segment : other.segmentsByLabel) {
+            this.segmentsByLabel.add(segment == null ? null : new Segment(this, segment));
+        }
+        this.freeLabels.addAll(other.freeLabels);
+        this.deviation = other.deviation;
+        this.edgeValue = other.edgeValue;
+        this.connectivity = other.connectivity;
+    }
+
+    /**
+     * Moves the genotype of this individual to a store and drops its segments, keeping its objective values, rank
+     * and crowding distance. The segments are decoded again when they are next needed.
+     * Must not be called while the individual is used by other threads.
+     */
+    public void storeIn(PopulationStore store) {
+        if (this.store != null) {
+            return;
+        }
+        this.slot = store.add(this);
+        this.store = store;
+        this.genotype = null;
+        this.labels = null;
+        this.segmentsByLabel = new ArrayList<>();
+        this.freeLabels.clear();
+    }
+
+    /**
+     * Frees the slot of a stored individual. Its genotype is lost, so it must not be used anymore.
+     */
+    public void releaseStorage() {
+        if (store != null) {
+            store.release(slot);
+            store = null;
         }
-        Collections.sort(createdEdges);
-        // Remove the worst edges, as to create noOfSegments initial segments
-        for (int i = 0; i < this.numSegments - 1; i++) {
-            Edge removedEdge = createdEdges.get(i);
-            updateGenotype(removedEdge.from, removedEdge.from);
+    }
+
+    public boolean isStored() {
+        return store != null;
+    }
+
+    /**
+     * Decodes a stored individual again, it stays in the store until it is released
+     */
+    private void ensureDecoded() {
+        if (genotype == null && store != null) {
+            genotype = store.readGenotype(slot);
+            createSegments();
         }
     }
 
+    /**
+     * Cuts the shared minimal span tree of the image into numSegments segments, by removing its heaviest edges
+     */
+    public void generateMinSpanTree() {
+        this.genotype = image.getMinSpanTree().createGenotype(this.numSegments);
+        this.genotypeHash = GenotypeHash.of(genotype);
+    }
+
     /**
      * Creates segments according to this individual's genotype
      */
     private void createSegments() {
-        List<Segment> tempSegments = new ArrayList<>();
-        Pixel currentPixel;
-        int currentIndex;
-        boolean[] visitedNodes = new boolean[genotype.size()];
-        Arrays.fill(visitedNodes, false);
-        Set<Pixel> segmentPixels;
-        for (int i = 0; i < genotype.size(); i++) {
-            // If already visited, skip
-            if (visitedNodes[i]) {
-                continue;
-            }
-            // Select pixel at index, add to segment and visitedNodes
-            segmentPixels = new HashSet<>();
-            Pair<Integer, Integer> pixelIndex = GenAlg.genotypeIndexToCoords(i, image.getHeight());
-            currentPixel = this.image.getPixels()[pixelIndex.x][pixelIndex.y];
-            segmentPixels.add(currentPixel);
-            visitedNodes[i] = true;
-            // Move on to neighbor as defined by genotype
-            currentPixel = currentPixel.getNeighborByGene(genotype.get(i));
-            currentIndex = GenAlg.coordsToGenotypeIndex(currentPixel.x, currentPixel.y, image.getHeight());
-            // While the neighbor has not been visited previously, keep moving
-            while (!visitedNodes[currentIndex]) {
-                segmentPixels.add(currentPixel);
-                visitedNodes[currentIndex] = true;
-                currentPixel = currentPixel.getNeighborByGene(genotype.get(currentIndex));
-                currentIndex = GenAlg.coordsToGenotypeIndex(currentPixel.x, currentPixel.y, image.getHeight());
-            }
-            // If last visited node has been visited before and does not point to itself, merge segments
-            if (this.image.getPixels()[pixelIndex.x][pixelIndex.y] != currentPixel) {
-                boolean flag = false;
-                for (Segment s : tempSegments) {
-                    if (s.containsPixel(currentPixel)) {
-                        s.addPixels(segmentPixels);
-                        flag = true;
-                        break;
-                    }
-                }
-                // If we reach a node with NONE as src.Gene, which does not belong to another segment
-                // it should create a new segment
-                if (!flag) {
-                    tempSegments.add(new Segment(this, segmentPixels));
-                }
-                // Else create new segment
-            } else {
-                tempSegments.add(new Segment(this, segmentPixels));
-            }
+        long startTime = System.nanoTime();
+        if (this.labels == null) {
+            this.labels = new int[genotype.length];
+        }
+        int[] roots = LabelDecoder.decode(image, genotype, labels);
+        List<Segment> tempSegments = new ArrayList<>(roots.length);
+        for (int s = 0; s < roots.length; s++) {
+            tempSegments.add(new Segment(this, s, roots[s]));
+        }
+        // Running sums in one pass over the image
+        for (int p = 0; p < labels.length; p++) {
+            addPixelStatistics(tempSegments.get(labels[p]), p);
+        }
+        // Deviation needs the centroids, so it takes a second pass
+        CieLab[] centroids = new CieLab[roots.length];
+        double[] deviations = new double[roots.length];
+        for (Segment segment : tempSegments) {
+            centroids[segment.getLabel()] = segment.getCentroid();
+        }
+        for (int p = 0; p < labels.length; p++) {
+            deviations[labels[p]] += image.computeDeviation(p, centroids[labels[p]]);
+        }
+        for (Segment segment : tempSegments) {
+            segment.setDeviation(deviations[segment.getLabel()]);
         }
         // Update number of segments
         this.numSegments = tempSegments.size();
-        this.segments = tempSegments;
+        this.segmentsByLabel = tempSegments;
+        this.freeLabels.clear();
         this.updateObjectiveValues();
+        this.decodeNanos = System.nanoTime() - startTime;
+    }
+
+    /**
+     * Adds a pixel and its boundary with other segments to the running sums of its segment.
+     * Labels of the pixel and its neighbors must be up to date.
+     */
+    private void addPixelStatistics(Segment segment, int pixel) {
+        segment.addPixel(pixel);
+        for (int n = 1; n <= 8; n++) {
+            int neighbor = image.getNeighbor(pixel, n);
+            if (neighbor >= 0 && labels[neighbor] != labels[pixel]) {
+                segment.addBoundary(pixel, n);
+            }
+        }
     }
 
     /**
@@ -164,8 +200,8 @@ public class Individual {
     // Supports multithreading, but needs to be parallelized from GA method
     public void mutationMergeSegments(Random threadLocalRandom) {
         // Find segments with fewer pixels than minimumSegmentSize
-        List<Segment> candidates = segments.stream()
-                .filter(segment -> segment.getPixels().size() < Params.mergeableSegmentLimit).toList();
+        List<Segment> candidates = getSegments().stream()
+                .filter(segment -> segment.getArea() < Params.mergeableSegmentLimit).toList();
         if (candidates.size() == 0) {
             return;
         }
@@ -175,8 +211,7 @@ public class Individual {
                 : getBestSegmentEdge(pick1);
 
         if (merge != null) {
-            updateGenotype(merge.to, merge.from);
-            createSegments();
+            resolveDeviation(mergeSegments(merge.from, merge.to));
         }
     }
 
@@ -192,54 +227,279 @@ public class Individual {
     public void mergeSmallSegments(int merge_number){
         List<Segment> mergeableSegments = new ArrayList<>();
         // Find segments with fewer pixels than threshold
-        for (Segment s: this.segments){
-            if (s.getPixels().size() < Params.mergeableSegmentLimit){
+        for (Segment s: getSegments()){
+            if (s.getArea() < Params.mergeableSegmentLimit){
                 mergeableSegments.add(s);
             }
         }
         // If no merge was made previous run, increment tries counter
         if (mergeableSegments.size() == this.prevMergeableSegments) merge_number++;
         // If no merge is needed or tries exceeded; exit condition
-        if (mergeableSegments.size() == 0 || merge_number > Params.mergeTries) return;
+        if (mergeableSegments.size() == 0 || merge_number > Params.mergeTries) {
+            // Deviation of merged segments is computed once, after all merges
+            for (Segment s : getSegments()) {
+                if (!s.hasDeviation()) {
+                    resolveDeviation(s);
+                }
+            }
+            return;
+        }
         // Find the best edge from each segment to merge
         for (Segment s: mergeableSegments){
+            if (segmentsByLabel.get(s.getLabel()) != s) {
+                continue; // Already merged into another segment
+            }
             Edge merge = getBestSegmentEdge(s);
             if (merge != null){
-                updateGenotype(merge.to, merge.from);
+                mergeSegments(merge.from, merge.to);
             }
         }
-        // Update prevMergeableSegments and create segments based on new genotype
+        // Update prevMergeableSegments
         this.prevMergeableSegments = mergeableSegments.size();
-        this.createSegments();
         // Recursively run until exit condition is reached
         this.mergeSmallSegments(merge_number);
     }
 
-    private void updateGenotype(Pixel from, Pixel to) {
-        if (Objects.equals(from, to)) {
-            this.genotype.set(GenAlg.coordsToGenotypeIndex(from.x, from.y, image.getHeight()), Gene.NONE);
+    private void setGene(int index, byte code) {
+        genotypeHash = GenotypeHash.update(genotypeHash, index, genotype[index], code);
+        genotype[index] = code;
+    }
+
+    /**
+     * @return gene that makes pixel from point at its cardinal neighbor to, or NONE if they are the same pixel
+     */
+    private Gene geneTowards(int from, int to) {
+        return Gene.fromUnitVector(image.getX(to) - image.getX(from), image.getY(to) - image.getY(from));
+    }
+
+    /**
+     * Changes a single gene and updates segments and objectives without decoding the whole genotype.
+     * Segments are the connected components of the gene graph, so removing the old gene edge can only split
+     * the segment of the pixel, and adding the new one can only join it with the segment it now points to.
+     * Only these (at most two) segments are relabeled, and as the union of their pixels is unchanged,
+     * the boundaries of all other segments stay the same.
+     * Cost is proportional to the size of the affected segments.
+     *
+     * @param index genotype index of the gene to change
+     * @param gene new gene, must point inside the image
+     */
+    public void mutateGene(int index, Gene gene) {
+        ensureDecoded();
+        int oldTarget = image.getNeighborByGene(index, Gene.fromCode(genotype[index]));
+        int newTarget = image.getNeighborByGene(index, gene);
+        if (oldTarget == newTarget) {
             return;
         }
-        // Sets the gene at e.to to point towards e.from as an MST can only have one parent but multiple
-        // children
-        this.genotype.set(
-                GenAlg.coordsToGenotypeIndex(to.x, to.y, image.getHeight()),
-                Gene.fromUnitVector(from.x - to.x, from.y - to.y));
+        int labelA = labels[index];
+        int labelB = labels[newTarget];
+        Segment oldA = segmentsByLabel.get(labelA);
+        Segment oldB = labelA == labelB ? null : segmentsByLabel.get(labelB);
+        setGene(index, gene.code());
+
+        // All pixels of the affected segments are in the new components of index and oldTarget
+        int[] queue = new int[oldA.getSize() + (oldB == null ? 0 : oldB.getSize())];
+        int sizeA = collectComponent(index, queue, 0);
+        int sizeB = labels[oldTarget] == RELABELED ? 0 : collectComponent(oldTarget, queue, sizeA);
+
+        // Give the component of index the first old label, and reuse or free the other one
+        int newLabelB = -1;
+        if (sizeB > 0) {
+            newLabelB = oldB != null ? labelB : newLabel();
+        } else if (oldB != null) {
+            segmentsByLabel.set(labelB, null);
+            freeLabels.push(labelB);
+        }
+        for (int i = 0; i < sizeA; i++) {
+            labels[queue[i]] = labelA;
+        }
+        for (int i = sizeA; i < sizeA + sizeB; i++) {
+            labels[queue[i]] = newLabelB;
+        }
+
+        // Replace the objective contributions of the old segments with those of the new ones
+        removeObjectiveValues(oldA);
+        if (oldB != null) {
+            removeObjectiveValues(oldB);
+        }
+        Segment newA = createSegment(labelA, findRoot(index), queue, 0, sizeA);
+        addObjectiveValues(newA);
+        if (sizeB > 0) {
+            Segment newB = createSegment(newLabelB, findRoot(oldTarget), queue, sizeA, sizeA + sizeB);
+            addObjectiveValues(newB);
+        }
+        this.numSegments += (sizeB > 0 ? 2 : 1) - (oldB != null ? 2 : 1);
+    }
+
+    /**
+     * Breadth first search in the undirected gene graph, marking each visited pixel as RELABELED
+     *
+     * @param start genotype index to search from
+     * @param queue array to put the pixels of the component in
+     * @param offset position in queue to start at
+     * @return number of pixels in the component
+     */
+    private int collectComponent(int start, int[] queue, int offset) {
+        int head = offset;
+        int tail = offset;
+        labels[start] = RELABELED;
+        queue[tail++] = start;
+        while (head < tail) {
+            int p = queue[head++];
+            // The pixel p points to
+            int target = pointsTo(p);
+            if (labels[target] != RELABELED) {
+                labels[target] = RELABELED;
+                queue[tail++] = target;
+            }
+            // Cardinal neighbors pointing to p
+            for (int n = 1; n <= 4; n++) {
+                int neighbor = image.getNeighbor(p, n);
+                if (neighbor >= 0 && labels[neighbor] != RELABELED && pointsTo(neighbor) == p) {
+                    labels[neighbor] = RELABELED;
+                    queue[tail++] = neighbor;
+                }
+            }
+        }
+        return tail - offset;
+    }
+
+    /**
+     * Creates a segment from pixels that are already labeled, and puts it in segmentsByLabel
+     */
+    private Segment createSegment(int label, int root, int[] pixels, int from, int to) {
+        Segment segment = new Segment(this, label, root);
+        for (int i = from; i < to; i++) {
+            addPixelStatistics(segment, pixels[i]);
+        }
+        segment.setDeviation(segment.computeDeviation(pixels, from, to));
+        segmentsByLabel.set(label, segment);
+        return segment;
+    }
+
+    /**
+     * Merges the segment of pixel from into the segment of its neighbor to, by making from point at to.
+     * The merged segment is first re-rooted at from, so every other gene still points within it and no pixel
+     * leaves it. Running sums are merged in constant time, only the pixels of the merged segment are visited
+     * to relabel them and to find the boundary they share.
+     * The deviation of the resulting segment must be computed by the caller, see resolveDeviation.
+     *
+     * @param from pixel in the segment to merge, should be the smaller segment
+     * @param to cardinal neighbor of from in another segment
+     * @return the segment of to, now containing both
+     */
+    private Segment mergeSegments(int from, int to) {
+        Segment segment = segmentsByLabel.get(labels[from]);
+        Segment other = segmentsByLabel.get(labels[to]);
+        int[] pixels = getSegmentPixels(segment);
+        int sharedBoundaryLength = 0;
+        long sharedBoundaryContrast = 0;
+        for (int p : pixels) {
+            for (int n = 1; n <= 8; n++) {
+                int neighbor = image.getNeighbor(p, n);
+                if (neighbor >= 0 && labels[neighbor] == other.getLabel()) {
+                    sharedBoundaryLength += image.getBoundaryLength(p, n);
+                    sharedBoundaryContrast += image.getBoundaryContrast(p, n);
+                }
+            }
+        }
+        // Reverse the genes on the path from -> root, so from becomes the root of the segment
+        int previous = from;
+        int current = pointsTo(from);
+        while (previous != segment.getRoot()) {
+            int next = pointsTo(current);
+            setGene(current, geneTowards(current, previous).code());
+            previous = current;
+            current = next;
+        }
+        setGene(from, geneTowards(from, to).code());
+        for (int p : pixels) {
+            labels[p] = other.getLabel();
+        }
+
+        removeObjectiveValues(segment);
+        removeObjectiveValues(other);
+        other.merge(segment, sharedBoundaryLength, sharedBoundaryContrast);
+        addObjectiveValues(other);
+        segmentsByLabel.set(segment.getLabel(), null);
+        freeLabels.push(segment.getLabel());
+        this.numSegments--;
+        return other;
+    }
+
+    /**
+     * Computes the deviation of a segment left without one by mergeSegments, and adds it to the objective
+     */
+    private void resolveDeviation(Segment segment) {
+        segment.setDeviation(segment.computeDeviation());
+        this.deviation += segment.getDeviation();
+    }
+
+    /**
+     * @return genotype index of the pixel the gene of pixel points to
+     */
+    private int pointsTo(int pixel) {
+        return image.getNeighborByGene(pixel, Gene.fromCode(genotype[pixel]));
+    }
+
+    /**
+     * Finds a pixel on the cycle the genes of pixel lead to, using Floyd's cycle detection
+     */
+    private int findRoot(int pixel) {
+        int slow = pointsTo(pixel);
+        int fast = pointsTo(slow);
+        while (slow != fast) {
+            slow = pointsTo(slow);
+            fast = pointsTo(pointsTo(fast));
+        }
+        return slow;
+    }
+
+    /**
+     * Finds all pixels of a segment by following the genes backwards from its root.
+     * Every other pixel is reached exactly once, from the pixel its gene points to.
+     *
+     * @return genotype indices of the pixels in segment
+     */
+    public int[] getSegmentPixels(Segment segment) {
+        int root = segment.getRoot();
+        int[] pixels = new int[segment.getSize()];
+        int head = 0;
+        int tail = 0;
+        pixels[tail++] = root;
+        while (head < tail) {
+            int p = pixels[head++];
+            for (int n = 1; n <= 4; n++) {
+                int neighbor = image.getNeighbor(p, n);
+                if (neighbor >= 0 && neighbor != root && pointsTo(neighbor) == p) {
+                    pixels[tail++] = neighbor;
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private int newLabel() {
+        if (!freeLabels.isEmpty()) {
+            return freeLabels.pop();
+        }
+        segmentsByLabel.add(null);
+        return segmentsByLabel.size() - 1;
     }
 
     private Edge getBestSegmentEdge(Segment segment) {
         Edge bestEdge = null;
         double bestDistance = Integer.MAX_VALUE;
         // Iterate through pixels in segment, find neighbours
-        for (Pixel p : segment.getPixels()) {
-            for (Pixel n : p.getCardinalNeighbors().values()) {
+        for (int p : segment.getPixels()) {
+            for (int neighbor = 1; neighbor <= 4; neighbor++) {
+                int n = image.getNeighbor(p, neighbor);
                 // Assign neighbours who are not in the same segment to a new src.Edge candidate
-                if (!segment.containsPixel(n)) {
-                    Edge temp = new Edge(p, n);
-                    if (temp.distance < bestDistance) {
+                if (n >= 0 && !segment.containsPixel(n)) {
+                    double distance = image.getNeighborDistance(p, neighbor);
+                    if (distance < bestDistance) {
                         // Update bestEdge to keep the edge with the lowest distance in RGB-space
-                        bestDistance = temp.distance;
-                        bestEdge = temp;
+                        bestDistance = distance;
+                        bestEdge = new Edge(p, n, distance);
                     }
                 }
             }
@@ -250,11 +510,12 @@ public class Individual {
     private Edge getRandomSegmentEdge(Segment segment, Random threadLocalRandom) {
         List<Edge> candidates = new ArrayList<>();
         // Iterate through pixels in segment, find neighbours
-        for (Pixel p : segment.getPixels()) {
-            for (Pixel n : p.getCardinalNeighbors().values()) {
+        for (int p : segment.getPixels()) {
+            for (int neighbor = 1; neighbor <= 4; neighbor++) {
+                int n = image.getNeighbor(p, neighbor);
                 // Assign neighbours who are not in the same segment to a new src.Edge candidate
-                if (!segment.containsPixel(n)) {
-                    candidates.add(new Edge(p, n));
+                if (n >= 0 && !segment.containsPixel(n)) {
+                    candidates.add(new Edge(p, n, image.getNeighborDistance(p, neighbor)));
                 }
             }
         }
@@ -272,19 +533,59 @@ public class Individual {
     }
 
     private void updateObjectiveValues() {
+        List<Segment> segments = getSegments();
         this.deviation = segments.stream()
-                .map(segment -> segment.deviation)
+                .map(Segment::getDeviation)
                 .reduce(0.0, Double::sum);
         this.edgeValue = segments.stream()
-                .map(segment -> segment.edgeValue)
+                .map(Segment::getEdgeValue)
                 .reduce(0.0, Double::sum);
         this.connectivity = segments.stream()
-                .map(segment -> segment.connectivity)
+                .map(Segment::getConnectivity)
                 .reduce(0.0, Double::sum);
     }
 
-    public List<Gene> getGenotype() {
-        return genotype;
+    /**
+     * Adds the objectives of a segment to the totals. Deviation is left out while it is not computed.
+     */
+    private void addObjectiveValues(Segment segment) {
+        if (segment.hasDeviation()) {
+            this.deviation += segment.getDeviation();
+        }
+        this.edgeValue += segment.getEdgeValue();
+        this.connectivity += segment.getConnectivity();
+    }
+
+    private void removeObjectiveValues(Segment segment) {
+        if (segment.hasDeviation()) {
+            this.deviation -= segment.getDeviation();
+        }
+        this.edgeValue -= segment.getEdgeValue();
+        this.connectivity -= segment.getConnectivity();
+    }
+
+    /**
+     * @return the genotype, which must not be modified. A new copy is read for a stored individual.
+     */
+    public byte[] getGenotype() {
+        return genotype == null && store != null ? store.readGenotype(slot) : genotype;
+    }
+
+    public long getGenotypeHash() {
+        return genotypeHash;
+    }
+
+    public int getLabel(int pixel) {
+        return labels[pixel];
+    }
+
+    public int[] getLabels() {
+        ensureDecoded();
+        return labels;
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos;
     }
 
     public int getNumSegments() {
@@ -292,7 +593,10 @@ public class Individual {
     }
 
     public List<Segment> getSegments() {
-        return segments;
+        ensureDecoded();
+        return segmentsByLabel.stream()
+                .filter(Objects::nonNull)
+                .toList();
     }
 
     public int getRank() {
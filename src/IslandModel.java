@@ -0,0 +1,88 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Parallel GA with Params.numIslands independent runGA2 populations, each evolving on its own thread.
+ * Every Params.migrationInterval generations, each island sends copies of its pareto-front to the islands given by
+ * Params.migrationTopology. Migration is asynchronous, so islands never wait for each other.
+ * All islands run with the same GAConfig, each with its own seed derived from the seed of the config.
+ */
+public class IslandModel {
+    private final GAConfig config;
+    private final List<GenAlg> islands = new ArrayList<>();
+    private List<List<Individual>> rankedPopulation;
+
+    public IslandModel(ImageHandler image, GAConfig config) {
+        this.config = config;
+        long seed = config.newSeed();
+        for (int i = 0; i < Params.numIslands; i++) {
+            // Offspring are produced on the island's own thread, and each island gets its own seed
+            islands.add(new GenAlg(image, Runnable::run, config, new SplittableRandom(seed + i).nextLong()));
+        }
+    }
+
+    /**
+     * Evolves all islands, then ranks their combined populations
+     */
+    public void run() {
+        long startTime = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(islands.size());
+        List<CompletableFuture<Void>> runs = new ArrayList<>();
+        for (int i = 0; i < islands.size(); i++) {
+            int island = i;
+            runs.add(CompletableFuture.runAsync(() -> evolveIsland(island), executor));
+        }
+        try {
+            CompletableFuture.allOf(runs.toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+        islands.forEach(GenAlg::closeStore); // Islands receive migrants until all have finished
+
+        // Migrants are copies, so islands may hold the same genotype
+        List<Individual> population = new ArrayList<>();
+        Set<ByteBuffer> genotypes = new HashSet<>();
+        for (GenAlg island : islands) {
+            for (Individual individual : island.getPop()) {
+                if (genotypes.add(ByteBuffer.wrap(individual.getGenotype()))) {
+                    population.add(individual);
+                }
+            }
+        }
+        this.rankedPopulation = islands.get(0).rankPopulation(population);
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.printf("%d islands finished in %.1f s, %.0f offspring/s%n", islands.size(), seconds,
+                (double) islands.size() * config.getNumGenerations() * config.getPopSize() / seconds);
+    }
+
+    private void evolveIsland(int island) {
+        GenAlg ga = islands.get(island);
+        ga.startGA2();
+        for (int currentGen = 0; currentGen < config.getNumGenerations(); currentGen++) {
+            ga.nextGeneration(currentGen);
+            boolean isLastGen = currentGen == config.getNumGenerations() - 1;
+            if (!isLastGen && (currentGen + 1) % Params.migrationInterval == 0) {
+                for (int target : Params.migrationTopology.getTargets(island, islands.size())) {
+                    // Each target gets its own copies, as ranks and crowding distances are set per island
+                    islands.get(target).receiveMigrants(ga.selectMigrants(Params.maxMigrants));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return pareto-fronts of the combined island populations, best first. Available after run.
+     */
+    public List<List<Individual>> getRankedPopulation() {
+        return rankedPopulation;
+    }
+
+    public List<GenAlg> getIslands() {
+        return islands;
+    }
+}
@@ -0,0 +1,54 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Decodes a genotype into a label map, where every pixel holds the id of the segment it belongs to.
+ * Segments are the connected components of the graph where every pixel has an edge to the pixel its gene points to.
+ */
+public class LabelDecoder {
+    private static final int UNVISITED = -1;
+    private static final int IN_PATH = -2;
+
+    /**
+     * Labels all pixels in a single linear pass. Each pixel follows its genes until it reaches a pixel that is
+     * already labeled, and the whole path gets that label. A path that ends in itself (a NONE gene or a cycle)
+     * starts a new segment. Every pixel is visited once, so this is O(pixels).
+     *
+     * @param image image the genotype belongs to
+     * @param genotype genotype to decode
+     * @param labels output array of length genotype.length, filled with segment ids 0..n-1
+     * @return the root of each of the n segments, a pixel on the cycle its path ended in
+     */
+    public static int[] decode(ImageHandler image, byte[] genotype, int[] labels) {
+        Arrays.fill(labels, UNVISITED);
+        int[] path = new int[genotype.length];
+        int[] roots = new int[16];
+        int numLabels = 0;
+        for (int i = 0; i < genotype.length; i++) {
+            if (labels[i] != UNVISITED) {
+                continue;
+            }
+            // Follow the genes until reaching a labeled pixel or a pixel on the current path
+            int pathLength = 0;
+            int current = i;
+            while (labels[current] == UNVISITED) {
+                labels[current] = IN_PATH;
+                path[pathLength++] = current;
+                current = image.getNeighborByGene(current, Gene.fromCode(genotype[current]));
+            }
+            int label = labels[current];
+            if (label == IN_PATH) {
+                if (numLabels == roots.length) {
+                    roots = Arrays.copyOf(roots, 2 * numLabels);
+                }
+                roots[numLabels] = current;
+                label = numLabels++;
+            }
+            for (int j = 0; j < pathLength; j++) {
+                labels[path[j]] = label;
+            }
+        }
+        return Arrays.copyOf(roots, numLabels);
+    }
+}
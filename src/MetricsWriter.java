@@ -0,0 +1,35 @@
+package src;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the metrics of each generation as one line of CSV, if the file name ends with .csv, or else of JSON
+ */
+public class MetricsWriter implements GenerationListener, Closeable {
+    private final PrintWriter writer;
+    private final boolean csv;
+
+    public MetricsWriter(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.csv = file.getFileName().toString().endsWith(".csv");
+        this.writer = new PrintWriter(Files.newBufferedWriter(file));
+        if (csv) {
+            writer.println(GenerationMetrics.csvHeader());
+        }
+    }
+
+    @Override
+    public synchronized void onGeneration(GenerationMetrics metrics) {
+        writer.println(csv ? metrics.toCsv() : metrics.toJson());
+        writer.flush(); // Lines are complete even if the run is stopped
+    }
+
+    @Override
+    public synchronized void close() {
+        writer.close();
+    }
+}
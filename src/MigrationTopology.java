@@ -0,0 +1,36 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which islands of an IslandModel each island sends its migrants to
+ */
+public enum MigrationTopology {
+    RING,
+    FULLY_CONNECTED;
+
+    /**
+     * @param island index of the sending island
+     * @param numIslands number of islands
+     * @return indices of the islands receiving migrants from island
+     */
+    public List<Integer> getTargets(int island, int numIslands) {
+        List<Integer> targets = new ArrayList<>();
+        switch (this) {
+            case RING -> {
+                if (numIslands > 1) {
+                    targets.add((island + 1) % numIslands);
+                }
+            }
+            case FULLY_CONNECTED -> {
+                for (int i = 0; i < numIslands; i++) {
+                    if (i != island) {
+                        targets.add(i);
+                    }
+                }
+            }
+        }
+        return targets;
+    }
+}
@@ -0,0 +1,180 @@
+package src;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Minimal span tree over the cardinal neighbor graph of an image, weighted by CieLab distance.
+ * Computed once per image with Kruskal's algorithm on primitive arrays, and shared by all individuals created from it.
+ * Only the edge weights and the sort run in parallel. The sorted edges are needed anyway, for cutting the heaviest
+ * tree edges first and for createRegionGenotype, and after the sort the union-find pass is close to linear, so a
+ * parallel Boruvka would only replace the cheaper part, at the cost of a pass over the edges per round.
+ */
+public class MinSpanTree {
+    private final ImageHandler image;
+    private final int[] edgesByWeight; // Ids of all cardinal edges, lightest first, see sortEdges
+    private final byte[] genotype; // Every pixel points to its parent in the tree, the root is NONE
+    private final int[] childrenByWeight; // The child pixel of each tree edge, heaviest edge first
+
+    public MinSpanTree(ImageHandler image) {
+        this.image = image;
+        int numPixels = image.getNumPixels();
+        this.edgesByWeight = sortEdges(image);
+        byte[] treeNeighbors = new byte[numPixels];
+        int[] treeEdges = new int[Math.max(numPixels - 1, 0)];
+        int numTreeEdges = kruskal(e -> true, treeNeighbors, treeEdges);
+        // Root the tree at the first pixel, so each pixel points towards it
+        this.genotype = rootForest(treeNeighbors);
+
+        // Cutting a tree edge means setting the gene of its child to NONE
+        this.childrenByWeight = new int[numTreeEdges];
+        for (int i = 0; i < numTreeEdges; i++) {
+            int e = treeEdges[numTreeEdges - 1 - i];
+            int from = e >> 1;
+            int to = edgeTarget(e);
+            childrenByWeight[i] = image.getNeighborByGene(to, Gene.fromCode(genotype[to])) == from ? to : from;
+        }
+    }
+
+    /**
+     * Genotype whose segments are the given regions, each region being a minimal span tree of its pixels.
+     * Used to carry a segmentation over from another image of the same shape, e.g. one level coarser in a pyramid.
+     * Reuses the sorted edges of this tree, so it runs in linear time.
+     *
+     * @param labels label of each pixel, the pixels of each label must be 4-connected
+     */
+    public byte[] createRegionGenotype(int[] labels) {
+        int numPixels = image.getNumPixels();
+        byte[] treeNeighbors = new byte[numPixels];
+        kruskal(e -> labels[e >> 1] == labels[edgeTarget(e)], treeNeighbors, new int[Math.max(numPixels - 1, 0)]);
+        return rootForest(treeNeighbors);
+    }
+
+    /**
+     * Each pixel owns the edge to its right (2p) and down (2p + 1) neighbor
+     *
+     * @return ids of all edges inside the image, lightest first
+     */
+    private static int[] sortEdges(ImageHandler image) {
+        // As distances are non-negative, their float bits sort like the distances, so weight and edge id are packed
+        // into one sortable long.
+        long[] edges = IntStream.range(0, 2 * image.getNumPixels()).parallel()
+                .filter(e -> edgeTarget(image, e) >= 0)
+                .mapToLong(e -> (long) Float.floatToIntBits(image.getNeighborDistance(e >> 1, (e & 1) == 0 ? 1 : 4))
+                        << 32 | e)
+                .toArray();
+        Arrays.parallelSort(edges);
+        int[] edgeIds = new int[edges.length];
+        for (int i = 0; i < edges.length; i++) {
+            edgeIds[i] = (int) edges[i];
+        }
+        return edgeIds;
+    }
+
+    /**
+     * Kruskal with union-find on the edges accepted by edgeFilter
+     *
+     * @param treeNeighbors set to the cardinal directions of the tree edges of each pixel, as neighbor number bits
+     * @param treeEdges set to the tree edges, lightest first
+     * @return number of tree edges
+     */
+    private int kruskal(IntPredicate edgeFilter, byte[] treeNeighbors, int[] treeEdges) {
+        int numPixels = image.getNumPixels();
+        int[] components = IntStream.range(0, numPixels).toArray();
+        int numTreeEdges = 0;
+        for (int e : edgesByWeight) {
+            if (!edgeFilter.test(e)) {
+                continue;
+            }
+            int from = e >> 1;
+            int to = edgeTarget(e);
+            int rootFrom = findComponent(components, from);
+            int rootTo = findComponent(components, to);
+            if (rootFrom != rootTo) {
+                components[rootFrom] = rootTo;
+                // Neighbor number 1 is right and 4 is down, 2 and 3 are the opposite directions
+                treeNeighbors[from] |= 1 << ((e & 1) == 0 ? 0 : 3);
+                treeNeighbors[to] |= 1 << ((e & 1) == 0 ? 1 : 2);
+                treeEdges[numTreeEdges++] = e;
+            }
+        }
+        return numTreeEdges;
+    }
+
+    /**
+     * Roots each tree of a forest at its first pixel, so each pixel points towards its root and the root is NONE
+     */
+    private byte[] rootForest(byte[] treeNeighbors) {
+        int numPixels = image.getNumPixels();
+        byte[] genotype = new byte[numPixels];
+        boolean[] visited = new boolean[numPixels];
+        int[] queue = new int[numPixels];
+        for (int root = 0; root < numPixels; root++) {
+            if (visited[root]) {
+                continue;
+            }
+            int head = 0;
+            int tail = 0;
+            genotype[root] = Gene.NONE.code();
+            visited[root] = true;
+            queue[tail++] = root;
+            while (head < tail) {
+                int p = queue[head++];
+                for (int n = 1; n <= 4; n++) {
+                    int neighbor = image.getNeighbor(p, n);
+                    if ((treeNeighbors[p] & (1 << (n - 1))) != 0 && !visited[neighbor]) {
+                        visited[neighbor] = true;
+                        genotype[neighbor] = oppositeGene(n).code();
+                        queue[tail++] = neighbor;
+                    }
+                }
+            }
+        }
+        return genotype;
+    }
+
+    /**
+     * @param numSegments number of segments, at least 1
+     * @return new genotype of the tree with the numSegments - 1 heaviest edges removed
+     */
+    public byte[] createGenotype(int numSegments) {
+        byte[] newGenotype = genotype.clone();
+        for (int i = 0; i < Math.min(numSegments - 1, childrenByWeight.length); i++) {
+            newGenotype[childrenByWeight[i]] = Gene.NONE.code();
+        }
+        return newGenotype;
+    }
+
+    /**
+     * @return the other pixel of edge e, or -1 if the edge goes outside the image
+     */
+    private int edgeTarget(int e) {
+        return edgeTarget(image, e);
+    }
+
+    private static int edgeTarget(ImageHandler image, int e) {
+        return image.getNeighbor(e >> 1, (e & 1) == 0 ? 1 : 4);
+    }
+
+    private static int findComponent(int[] components, int p) {
+        while (components[p] != p) {
+            components[p] = components[components[p]]; // Path halving
+            p = components[p];
+        }
+        return p;
+    }
+
+    /**
+     * @return gene pointing back from neighbor number n to the pixel
+     */
+    private static Gene oppositeGene(int n) {
+        return switch (n) {
+            case 1 -> Gene.LEFT;
+            case 2 -> Gene.RIGHT;
+            case 3 -> Gene.DOWN;
+            case 4 -> Gene.UP;
+            default -> throw new IllegalArgumentException(n + " is not a cardinal neighbor number.");
+        };
+    }
+}
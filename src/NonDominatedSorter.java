@@ -0,0 +1,74 @@
+package src;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Non-dominated sorting of objective vectors, where one vector dominates another if it is strictly smaller in
+ * every objective (same as Individual.dominates). The rank of a vector is 1 for the first pareto-front, 2 for the
+ * front that is non-dominated once the first is removed, and so on.
+ * <p>
+ * Uses Efficient Non-dominated Sort with binary search (Zhang et al. 2015). Vectors are visited in order of their
+ * first objective, so every vector that can dominate the current one already has its front. The current vector
+ * goes in the first front with no member dominating it. If a member of front k dominates it, so does a member of
+ * every front before k, which makes the fronts binary searchable.
+ * Takes O(N log N) to sort and at most O(M N^2) comparisons, but few in practice, and O(N) memory.
+ */
+public class NonDominatedSorter {
+
+    /**
+     * @param objectives objectives[i] is the objective vector of solution i, all of the same length
+     * @return ranks, starting at 1
+     */
+    public static int[] rank(double[][] objectives) {
+        int n = objectives.length;
+        int[] ranks = new int[n];
+        Integer[] order = IntStream.range(0, n).boxed().toArray(Integer[]::new);
+        Arrays.sort(order, Comparator.comparingDouble(i -> objectives[i][0]));
+
+        int[][] fronts = new int[n][];
+        int[] frontSizes = new int[n];
+        int numFronts = 0;
+        for (int s : order) {
+            // Binary search for the first front where no member dominates s
+            int low = 0;
+            int high = numFronts;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (isDominatedByFront(objectives, s, fronts[middle], frontSizes[middle])) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            if (low == numFronts) {
+                fronts[numFronts++] = new int[8];
+            } else if (frontSizes[low] == fronts[low].length) {
+                fronts[low] = Arrays.copyOf(fronts[low], 2 * frontSizes[low]);
+            }
+            fronts[low][frontSizes[low]++] = s;
+            ranks[s] = low + 1;
+        }
+        return ranks;
+    }
+
+    private static boolean isDominatedByFront(double[][] objectives, int s, int[] front, int frontSize) {
+        // The latest members are closest to s in the first objective, so they are checked first
+        for (int i = frontSize - 1; i >= 0; i--) {
+            if (dominates(objectives[front[i]], objectives[s])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean dominates(double[] a, double[] b) {
+        for (int k = 0; k < a.length; k++) {
+            if (a[k] >= b[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
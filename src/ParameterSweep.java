@@ -0,0 +1,186 @@
+package src;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs runGA2 on one image for every combination of a grid of GAConfig values, and prints runtime against the
+ * quality of the final front. All runs share one ImageHandler, so the image, its edges and its minimum spanning tree
+ * are computed once, and one pool of Params.threadPoolSize workers. Params.sweepConcurrentRuns runs are in progress
+ * at a time, so their times include waiting for the shared workers.
+ * Quality is the hypervolume of each final front, normalized by the final fronts of all runs so runs can be
+ * compared, and the ground truth score of its best individual by combined fitness, see GroundTruthEvaluator.
+ * The table is also written to Params.sweepFileName in the output directory of the image.
+ * Usage: ParameterSweep imageName [name=value1,value2,...]... [properties file]...
+ * Parameters with a single value and properties files are shared by all runs, e.g.
+ * ParameterSweep 118035 numGenerations=20 popSize=20,40,80 mutationProb=0.1,0.2
+ */
+public class ParameterSweep {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: ParameterSweep imageName [name=value1,value2,...]... [properties file]...");
+            return;
+        }
+        List<String> sharedArgs = new ArrayList<>();
+        Map<String, List<String>> grid = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            int separator = args[i].indexOf('=');
+            if (separator >= 0 && args[i].indexOf(',', separator) >= 0) {
+                String name = args[i].substring(0, separator).trim();
+                grid.put(name, List.of(args[i].substring(separator + 1).split(",")));
+            } else {
+                sharedArgs.add(args[i]);
+            }
+        }
+        List<GAConfig> configs = expand(GAConfig.parse(sharedArgs.toArray(new String[0])), grid);
+        ImageHandler image = new ImageHandler(args[0]);
+        GroundTruthEvaluator evaluator = null;
+        try {
+            evaluator = GroundTruthEvaluator.forTrainImage(image);
+        } catch (IOException e) {
+            System.out.println("No ground truth scores: " + e.getMessage());
+        }
+
+        System.out.printf("Sweeping %d configurations on %s%n", configs.size(), image.getName());
+        ExecutorService workers = Executors.newFixedThreadPool(Params.threadPoolSize);
+        // Runs only wait on their workers, so they get their own threads and never block a worker
+        ExecutorService runs = Executors.newFixedThreadPool(Params.sweepConcurrentRuns);
+        long startTime = System.nanoTime();
+        List<CompletableFuture<RunResult>> futures = new ArrayList<>();
+        for (GAConfig config : configs) {
+            futures.add(CompletableFuture.supplyAsync(() -> run(image, config, workers), runs));
+        }
+        List<RunResult> results = futures.stream().map(CompletableFuture::join).toList();
+        runs.shutdown();
+        workers.shutdown();
+
+        // Fronts are normalized together, so their hypervolumes can be compared
+        List<Individual> allFronts = new ArrayList<>();
+        results.forEach(result -> allFronts.addAll(result.front));
+        for (RunResult result : results) {
+            if (!result.front.isEmpty()) {
+                ConvergenceMonitor monitor = new ConvergenceMonitor(allFronts, result.config);
+                monitor.update(result.front);
+                result.hypervolume = monitor.getHypervolume();
+                if (evaluator != null && evaluator.getNumGroundTruths() > 0) {
+                    result.groundTruthScore = evaluator.evaluate(result.front.stream()
+                            .min(Comparator.comparingDouble(Individual::computeCombinedFitness)).orElseThrow());
+                }
+            }
+        }
+
+        System.out.println("Sweep summary:");
+        System.out.printf("%4s %8s %6s %8s %-17s %6s %11s %8s  %s%n", "run", "time (s)", "gens", "evals", "stop reason",
+                "front", "hypervolume", "gt score", "parameters");
+        for (int i = 0; i < results.size(); i++) {
+            System.out.printf("%4d %s%n", i, results.get(i));
+        }
+        System.out.printf("Swept %d configurations in %.1f s%n", results.size(),
+                (System.nanoTime() - startTime) / 1e9);
+        writeCsv(Path.of(Params.outputDirectory, image.getName(), Params.sweepFileName), results, grid);
+        System.exit(0);
+    }
+
+    /**
+     * @return base with every combination of the grid values, the last parameter of the grid changing fastest
+     */
+    static List<GAConfig> expand(GAConfig base, Map<String, List<String>> grid) {
+        List<GAConfig> configs = List.of(base);
+        for (Map.Entry<String, List<String>> parameter : grid.entrySet()) {
+            List<GAConfig> expanded = new ArrayList<>();
+            for (GAConfig config : configs) {
+                for (String value : parameter.getValue()) {
+                    expanded.add(config.with(parameter.getKey(), value.trim()));
+                }
+            }
+            configs = expanded;
+        }
+        return configs;
+    }
+
+    /**
+     * Runs one configuration. Failures are reported in the table, so the rest of the sweep goes on.
+     */
+    private static RunResult run(ImageHandler image, GAConfig config, ExecutorService workers) {
+        long startTime = System.nanoTime();
+        try {
+            GenAlg ga = new GenAlg(image, workers, config);
+            ga.runGA2();
+            List<Individual> front = ga.getPop().stream().filter(individual -> individual.getRank() == 1).toList();
+            return new RunResult(config, System.nanoTime() - startTime, ga.getLatestFront().getGeneration(),
+                    ga.getEvaluations(), ga.getStopReason(), front, null);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return new RunResult(config, System.nanoTime() - startTime, 0, 0, null, List.of(), e);
+        }
+    }
+
+    private static void writeCsv(Path file, List<RunResult> results, Map<String, List<String>> grid)
+            throws IOException {
+        Files.createDirectories(file.getParent());
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            writer.print("run,seconds,generations,evaluations,stop_reason,front_size,hypervolume,ground_truth_score");
+            grid.keySet().forEach(name -> writer.print("," + name));
+            writer.println();
+            for (int i = 0; i < results.size(); i++) {
+                RunResult result = results.get(i);
+                writer.print(String.format(Locale.ROOT, "%d,%.3f,%d,%d,%s,%d,%.6f,%.6f", i, result.nanos / 1e9,
+                        result.generations, result.evaluations, result.error != null ? "FAILED" : result.stopReason,
+                        result.front.size(), result.hypervolume, result.groundTruthScore));
+                Map<String, String> overrides = result.config.getOverrides();
+                grid.keySet().forEach(name -> writer.print("," + overrides.get(name)));
+                writer.println();
+            }
+        }
+        System.out.println("Sweep table written to " + file);
+    }
+
+    /**
+     * Timing and final front of one run
+     */
+    private static class RunResult {
+        private final GAConfig config;
+        private final long nanos;
+        private final int generations;
+        private final long evaluations;
+        private final StopReason stopReason;
+        private final List<Individual> front;
+        private final Exception error;
+        private double hypervolume = Double.NaN; // Set once all runs are done
+        private double groundTruthScore = Double.NaN;
+
+        private RunResult(GAConfig config, long nanos, int generations, long evaluations, StopReason stopReason,
+                          List<Individual> front, Exception error) {
+            this.config = config;
+            this.nanos = nanos;
+            this.generations = generations;
+            this.evaluations = evaluations;
+            this.stopReason = stopReason;
+            this.front = front;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            if (error != null) {
+                return "%8.1f  failed: %s  %s".formatted(nanos / 1e9, error, config);
+            }
+            return String.format(Locale.ROOT, "%8.1f %6d %8d %-17s %6d %11.4f %8s  %s", nanos / 1e9, generations,
+                    evaluations, stopReason, front.size(), hypervolume,
+                    Double.isNaN(groundTruthScore) ? "-" : String.format(Locale.ROOT, "%.2f%%", 100 * groundTruthScore),
+                    config);
+        }
+    }
+}
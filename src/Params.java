@@ -1,6 +1,7 @@
 package src;
 
 public class Params {
+    // The GA parameters named in GAConfig are only defaults, a run can override them from a file or the command line
     public static final String imageName = "42044 (eval)(single objective)"; // Use folder name in training_images
     // Create popsize/2 initial population, is doubled on first generation
     public static final int numGenerations = 10;
@@ -13,6 +14,89 @@ public class Params {
     // Probability of merging best edge, 1-p for random edge
     public static final double mergeMutationEpsilon = 0.7;
     public static final int threadPoolSize = 10;
+    // Produce the next offspring from the fronts that survive whole, while the last front is trimmed
+    public static final boolean pipelineGenerations = true;
+
+    // Seed of the random numbers of a run, 0 for a new seed on every run
+    public static final long seed = 0;
+    // Write a checkpoint every checkpointInterval generations of runGA2, 0 to disable
+    public static final int checkpointInterval = 0;
+    // Stored in the output directory of the image
+    public static final String checkpointFileName = "checkpoint.bin";
+    // Continue from the checkpoint of the image, if there is one
+    public static final boolean resumeFromCheckpoint = false;
+
+    // Stop runGA2 before numGenerations once the first front stops improving, see ConvergenceMonitor.
+    // Stagnation is measured in objective ranges of the initial population, 0 stagnationGenerations to disable
+    public static final int stagnationGenerations = 0;
+    public static final double stagnationTolerance = 1e-3;
+    public static final ConvergenceMeasure convergenceMeasure = ConvergenceMeasure.HYPERVOLUME;
+    // Budgets of runGA2, 0 for none. When time runs out, the running generation ends with the offspring produced so
+    // far. The evaluation budget counts the initial population and all offspring, no generation is started that would
+    // exceed it
+    public static final double timeBudgetSeconds = 0;
+    public static final int evaluationBudget = 0;
+
+    // Per-generation metrics of runGA and runGA2 in the output directory of the image, .csv for CSV and otherwise
+    // JSON lines, empty to disable. See MetricsWriter
+    public static final String metricsFileName = "metrics.jsonl";
+    // One line of progress per generation of the segmented image on stdout, see ConsoleListener. Islands, tiles and
+    // sweep runs are not reported
+    public static final boolean printGenerations = true;
+
+    // Coarse to fine GA, see PyramidGA. Levels include the full image, each coarser level halving its size
+    public static final boolean usePyramid = false;
+    public static final int pyramidLevels = 3;
+    // Generations at full resolution, coarser levels run numGenerations
+    public static final int pyramidFineGenerations = 3;
+    // Levels are not made smaller than this in either dimension
+    public static final int pyramidMinSize = 32;
+
+    // Segment a grid of superpixelSize x superpixelSize cells instead of single pixels, see
+    // ImageHandler.createSuperpixelGrid. Shrinks the genotype by superpixelSize squared, objectives stay exact.
+    public static final boolean useSuperpixels = false;
+    public static final int superpixelSize = 4;
+
+    // Segment the image in overlapping tiles that are stitched afterwards, see TiledSegmentation.
+    // Only tileConcurrency tiles are decoded and segmented at a time, each by a single threaded GA.
+    public static final boolean useTiles = false;
+    public static final int tileSize = 512;
+    public static final int tileOverlap = 32;
+    public static final int tileConcurrency = threadPoolSize;
+
+    // Keep packed genotypes of the population outside the heap, see PopulationStore. Individuals are decoded only
+    // while offspring are produced, so popSize can be in the thousands.
+    public static final boolean useOffHeapPopulation = false;
+    // Directory of the file backing the store, empty for direct memory
+    public static final String populationStoreDirectory = "";
+    public static final int populationStoreArenaSlots = 64;
+
+    // Score the saved pareto-front against the GT_*.jpg files of the image, see GroundTruthEvaluator.
+    // The thresholds are those of evaluator/run.py
+    public static final boolean evaluateGroundTruth = true;
+    // Also score the best individual of every generation of the segmented image, as the ground_truth_score metric.
+    // One evaluation per generation, on the thread running the GA
+    public static final boolean trackGroundTruth = false;
+    public static final int evaluatorBlackThreshold = 100;
+    public static final int evaluatorColorSlack = 40;
+    public static final int evaluatorPixelRange = 4;
+
+    // Decoded individuals kept by genotype hash, so duplicate offspring are copied instead of decoded, see
+    // FitnessCache. 0 disables the cache, which is always disabled with useOffHeapPopulation
+    public static final int fitnessCacheSize = useOffHeapPopulation ? 0 : 2 * popSize;
+
+    // Saved images are encoded by a background queue, see ImageWriterQueue. Deflate level 0 (fastest) to 9 (smallest)
+    public static final int pngCompressionLevel = 4;
+    public static final int imageWriterThreads = 2;
+    public static final int imageWriterQueueSize = 12;
+
+    // Island model, see IslandModel. Each island evolves a population of popSize on its own thread
+    public static final boolean useIslands = false;
+    public static final int numIslands = 4;
+    // Islands exchange pareto-front individuals every migrationInterval generations
+    public static final int migrationInterval = 5;
+    public static final int maxMigrants = 5;
+    public static final MigrationTopology migrationTopology = MigrationTopology.RING;
 
     // Whether or not to use a simple GA with weighted loss
     public static final boolean useSimpleGA = false;
@@ -27,6 +111,17 @@ public class Params {
     public static final double weightConnectivity = 100; // 100;
     public static final double weightDeviation = 10; // 10;
 
+    // Batch mode, see BatchSegmentron. Segments every train/*/Test image.jpg
+    public static final String trainDirectory = "train";
+    // Images whose GA runs at the same time, sharing one pool of threadPoolSize workers
+    public static final int batchConcurrentImages = 3;
+
+    // Parameter sweep, see ParameterSweep. Runs of one image that are in progress at the same time, sharing the image
+    // and one pool of threadPoolSize workers
+    public static final int sweepConcurrentRuns = 2;
+    // Table of the sweep in the output directory of the image
+    public static final String sweepFileName = "sweep.csv";
+
     // Misc
     public static final boolean deleteOldFiles = true;
     public static final String outputDirectory = "segmented_images";
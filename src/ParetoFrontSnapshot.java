@@ -0,0 +1,118 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable copy of the first pareto-front of a GenAlg after a generation, see GenAlg.getLatestFront.
+ * Objective values are copied when the snapshot is taken, so they can be read without touching the population.
+ * Only the genotypes of the individuals are copied, as the population may change once the snapshot is taken: slots
+ * of a PopulationStore are reused, and the final front is merged by Segmentron2000. Individuals are decoded when
+ * asked for with getIndividual, and belong to the caller.
+ */
+public class ParetoFrontSnapshot {
+    private final ImageHandler image;
+    private final int generation;
+    private final long timeNanos;
+    private final double[][] objectiveValues; // By individual, then by Objective ordinal
+    private final int[] numSegments;
+    private final byte[][] genotypes;
+    private final long[] genotypeHashes;
+
+    /**
+     * Must be called between generations, on the thread running the GA
+     *
+     * @param generation number of generations run when the front was found
+     * @param front first pareto-front of the population
+     */
+    ParetoFrontSnapshot(ImageHandler image, int generation, List<Individual> front) {
+        this.image = image;
+        this.generation = generation;
+        this.timeNanos = System.nanoTime();
+        this.objectiveValues = new double[front.size()][];
+        this.numSegments = new int[front.size()];
+        this.genotypes = new byte[front.size()][];
+        this.genotypeHashes = new long[front.size()];
+        for (int i = 0; i < front.size(); i++) {
+            Individual individual = front.get(i);
+            objectiveValues[i] = new double[Objective.values().length];
+            for (Objective objective : Objective.values()) {
+                objectiveValues[i][objective.ordinal()] = individual.getObjectiveValue(objective);
+            }
+            numSegments[i] = individual.getNumSegments();
+            // A stored individual reads a new copy, unless it was decoded again and holds its genotype
+            genotypes[i] = individual.getGenotype().clone();
+            genotypeHashes[i] = individual.getGenotypeHash();
+        }
+    }
+
+    /**
+     * Decodes an individual of the front, on the calling thread
+     *
+     * @return a new individual, which may be modified, e.g. by mergeSmallSegments
+     */
+    public Individual getIndividual(int index) {
+        return new Individual(image, genotypes[index].clone(), genotypeHashes[index]);
+    }
+
+    /**
+     * @return all individuals of the front, newly decoded
+     */
+    public List<Individual> getIndividuals() {
+        List<Individual> copies = new ArrayList<>();
+        for (int i = 0; i < size(); i++) {
+            copies.add(getIndividual(i));
+        }
+        return Collections.unmodifiableList(copies);
+    }
+
+    /**
+     * @return index of the individual with the lowest combined fitness, see Individual.computeCombinedFitness
+     */
+    public int getBestIndex() {
+        int best = 0;
+        for (int i = 1; i < size(); i++) {
+            if (computeCombinedFitness(i) < computeCombinedFitness(best)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private double computeCombinedFitness(int index) {
+        return Params.weightConnectivity * getObjectiveValue(index, Objective.CONNECTIVITY)
+                + Params.weightDeviation * getObjectiveValue(index, Objective.DEVIATION)
+                + Params.weightEdgeValue * getObjectiveValue(index, Objective.EDGE_VALUE);
+    }
+
+    public double getObjectiveValue(int index, Objective objective) {
+        return objectiveValues[index][objective.ordinal()];
+    }
+
+    public int getNumSegments(int index) {
+        return numSegments[index];
+    }
+
+    public int size() {
+        return genotypes.length;
+    }
+
+    /**
+     * @return number of generations run when the front was found, 0 for the initial population
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return System.nanoTime when the front was found
+     */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public ImageHandler getImage() {
+        return image;
+    }
+}
@@ -0,0 +1,150 @@
+package src;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Packed genotypes and objective values of individuals, kept outside the heap in direct or file mapped buffers.
+ * A stored Individual only keeps its objectives and a slot on the heap, see Individual.storeIn, so a population of
+ * thousands takes about a third of a byte per pixel per individual, and no heap for its segments.
+ * Each slot is a fixed size record of the genotype packed as in Checkpoint, the objective values stay in the
+ * Individual. Slots are allocated in arenas of Params.populationStoreArenaSlots records, which are mapped from
+ * consecutive regions of a temporary file when the store is file backed.
+ */
+public class PopulationStore implements Closeable {
+    private final int numGenes;
+    private final int packedLength;
+    private final int recordSize;
+    private final int slotsPerArena;
+    private final Path file; // Null for direct buffers
+    private final FileChannel channel;
+    private final List<ByteBuffer> arenas = new CopyOnWriteArrayList<>();
+    // Released slots, reused before a new arena is allocated
+    private int[] freeSlots = new int[16];
+    private int numFreeSlots;
+    private int numSlots; // Slots in all arenas
+    private int size; // Slots in use
+
+    /**
+     * Store in direct buffers
+     */
+    public PopulationStore(ImageHandler image) {
+        this(image, null);
+    }
+
+    /**
+     * @param directory directory of the temporary file the arenas are mapped from, which is deleted on exit.
+     *                  Null to use direct buffers.
+     */
+    public PopulationStore(ImageHandler image, Path directory) {
+        this.numGenes = image.getNumPixels();
+        this.packedLength = Checkpoint.packedLength(numGenes);
+        this.recordSize = packedLength;
+        // A buffer can't hold more than Integer.MAX_VALUE bytes
+        this.slotsPerArena = Math.max(1, Math.min(Params.populationStoreArenaSlots, Integer.MAX_VALUE / recordSize));
+        if (directory == null) {
+            this.file = null;
+            this.channel = null;
+        } else {
+            try {
+                Files.createDirectories(directory);
+                this.file = Files.createTempFile(directory, "population", ".bin");
+                file.toFile().deleteOnExit();
+                this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the genotype of a decoded individual to a new slot
+     *
+     * @return the slot, valid until it is released
+     */
+    public int add(Individual individual) {
+        int slot = allocate();
+        byte[] packed = new byte[packedLength];
+        Checkpoint.pack(individual.getGenotype(), packed);
+        arenas.get(slot / slotsPerArena).put(slot % slotsPerArena * recordSize, packed);
+        return slot;
+    }
+
+    /**
+     * @return a new copy of the genotype in slot
+     */
+    public byte[] readGenotype(int slot) {
+        byte[] packed = new byte[packedLength];
+        arenas.get(slot / slotsPerArena).get(slot % slotsPerArena * recordSize, packed);
+        return Checkpoint.unpack(packed, numGenes);
+    }
+
+    private synchronized int allocate() {
+        size++;
+        if (numFreeSlots > 0) {
+            return freeSlots[--numFreeSlots];
+        }
+        if (numSlots == arenas.size() * slotsPerArena) {
+            arenas.add(newArena());
+        }
+        return numSlots++;
+    }
+
+    private ByteBuffer newArena() {
+        long arenaBytes = (long) slotsPerArena * recordSize;
+        if (channel == null) {
+            return ByteBuffer.allocateDirect((int) arenaBytes);
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, arenas.size() * arenaBytes, arenaBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Frees a slot for reuse, its individual must no longer be read
+     */
+    public synchronized void release(int slot) {
+        if (numFreeSlots == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, 2 * freeSlots.length);
+        }
+        freeSlots[numFreeSlots++] = slot;
+        size--;
+    }
+
+    /**
+     * @return number of slots in use
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return bytes allocated outside the heap, or mapped from the file
+     */
+    public long getStoredBytes() {
+        return (long) arenas.size() * slotsPerArena * recordSize;
+    }
+
+    /**
+     * Closes and deletes the file of a file backed store. Arenas that are already mapped stay readable, so stored
+     * individuals can still be decoded, but no slots can be added once the arenas are full.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Coarse to fine GA over an image pyramid. run first runs the numGenerations of its GAConfig on the coarsest level,
+ * where genotypes are a fraction of the size. The final population of each level is upsampled to start the next
+ * finer level, so only Params.pyramidFineGenerations generations run at full resolution.
+ */
+public class PyramidGA {
+    private final List<ImageHandler> levels = new ArrayList<>(); // Full image first, each level half the size
+    private final Executor executor;
+    private final GAConfig config;
+    private final List<GenerationListener> listeners = new ArrayList<>();
+    private GenAlg finestGA;
+
+    /**
+     * @param image full resolution image
+     * @param executor executor producing individuals on all levels
+     * @param config parameters of the GA of every level, each level is seeded from its seed
+     */
+    public PyramidGA(ImageHandler image, Executor executor, GAConfig config) {
+        this.executor = executor;
+        this.config = config;
+        levels.add(image);
+        while (levels.size() < Params.pyramidLevels) {
+            ImageHandler finest = levels.get(levels.size() - 1);
+            if (finest.getWidth() < 2 * Params.pyramidMinSize || finest.getHeight() < 2 * Params.pyramidMinSize) {
+                break;
+            }
+            levels.add(finest.downsample());
+        }
+    }
+
+    /**
+     * Adds a listener to the GA of every level, generations are numbered from 0 on each level
+     */
+    public void addListener(GenerationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void run() {
+        long seed = config.newSeed();
+        List<Individual> population = null;
+        for (int level = levels.size() - 1; level >= 0; level--) {
+            long startTime = System.nanoTime();
+            ImageHandler image = levels.get(level);
+            GenAlg ga = new GenAlg(image, executor, config, new SplittableRandom(seed + level).nextLong());
+            listeners.forEach(ga::addListener);
+            boolean isFinest = level == 0 && levels.size() > 1;
+            if (isFinest) {
+                ga.setNumGenerations(Params.pyramidFineGenerations);
+            }
+            if (population == null) {
+                ga.startGA2();
+            } else {
+                ga.startGA2(upsample(population, image));
+            }
+            for (int currentGen = 0; currentGen < ga.getNumGenerations(); currentGen++) {
+                ga.nextGeneration(currentGen);
+            }
+            ga.closeStore();
+            System.out.printf("Pyramid level %d (%dx%d): %d generations in %.1f s%n", level, image.getWidth(),
+                    image.getHeight(), ga.getNumGenerations(), (System.nanoTime() - startTime) / 1e9);
+            population = ga.getPop();
+            this.finestGA = ga;
+        }
+    }
+
+    /**
+     * Carries the segments of each individual over to the next finer level, see MinSpanTree.createRegionGenotype
+     */
+    private List<Individual> upsample(List<Individual> population, ImageHandler fineImage) {
+        List<CompletableFuture<Individual>> upsampled = new ArrayList<>();
+        for (Individual individual : population) {
+            upsampled.add(CompletableFuture.supplyAsync(() -> {
+                int[] labels = upsampleLabels(individual.getLabels(), individual.getImage(), fineImage);
+                return new Individual(fineImage, fineImage.getMinSpanTree().createRegionGenotype(labels));
+            }, executor));
+        }
+        List<Individual> finePopulation = new ArrayList<>();
+        for (CompletableFuture<Individual> individual : upsampled) {
+            finePopulation.add(individual.join());
+        }
+        return finePopulation;
+    }
+
+    /**
+     * Each fine pixel gets the label of the coarse pixel covering it. As every coarse pixel becomes a 2x2 block,
+     * 4-connected segments stay 4-connected.
+     */
+    private static int[] upsampleLabels(int[] labels, ImageHandler coarseImage, ImageHandler fineImage) {
+        int[] fineLabels = new int[fineImage.getNumPixels()];
+        for (int p = 0; p < fineLabels.length; p++) {
+            int coarseX = Math.min(fineImage.getX(p) / 2, coarseImage.getWidth() - 1);
+            int coarseY = Math.min(fineImage.getY(p) / 2, coarseImage.getHeight() - 1);
+            fineLabels[p] = labels[GenAlg.coordsToGenotypeIndex(coarseX, coarseY, coarseImage.getHeight())];
+        }
+        return fineLabels;
+    }
+
+    /**
+     * @return the GA of the full resolution image, available after run
+     */
+    public GenAlg getFinestGA() {
+        return finestGA;
+    }
+
+    public List<Individual> getPop() {
+        return finestGA.getPop();
+    }
+
+    public List<ImageHandler> getLevels() {
+        return levels;
+    }
+}
@@ -3,67 +3,142 @@ package src;
 import src.CieLab;
 import src.Gene;
 import src.Individual;
-import src.Pixel;
 
 import java.util.*;
 
 public class Segment {
-    private CieLab centroid; // Average color in segment
-
     private final Individual individual;
-    private Set<Pixel> pixels; // TODO: why Set and not List?
+    private final ImageHandler image;
+    private final int label; // Id of this segment in the individual's label map
+    // Pixel on the gene cycle of this segment (or pointing to itself), all pixels of the segment point towards it
+    private final int root;
+
+    // Running sums of the pixels in this segment, so segments can be merged without visiting their pixels.
+    // size counts genotype pixels, area the image pixels they cover, which differ in a superpixel grid.
     private int size;
-    public final double connectivity, edgeValue, deviation; // The objectives
+    private int area;
+    private double sumL, sumA, sumB;
+    // Number of (pixel, neighbor) pairs where the neighbor is in another segment, and the sum of their color distance
+    private int boundaryLength;
+    private long boundaryContrast;
+    // Sum of distances to the centroid can not be derived from the running sums, NaN until it is computed
+    private double deviation = Double.NaN;
 
-    public Segment(Individual individual, Set<Pixel> pixels) {
+    /**
+     * Creates an empty segment, pixels are added with addPixel and addBoundary
+     */
+    public Segment(Individual individual, int label, int root) {
         this.individual = individual;
-        this.pixels = pixels;
-        this.size = pixels.size();
-        updateCentroid();
-        this.connectivity = computeConnectivity();
-        this.edgeValue = computeEdgeValue();
-        this.deviation = computeDeviation();
+        this.image = individual.getImage();
+        this.label = label;
+        this.root = root;
+    }
+
+    /**
+     * Copies a segment into another individual with the same label map, without recomputing its objectives
+     */
+    public Segment(Individual individual, Segment other) {
+        this.individual = individual;
+        this.image = other.image;
+        this.label = other.label;
+        this.root = other.root;
+        this.size = other.size;
+        this.area = other.area;
+        this.sumL = other.sumL;
+        this.sumA = other.sumA;
+        this.sumB = other.sumB;
+        this.boundaryLength = other.boundaryLength;
+        this.boundaryContrast = other.boundaryContrast;
+        this.deviation = other.deviation;
+    }
+
+    /**
+     * Adds the color of a pixel to the running sums
+     */
+    public void addPixel(int pixel) {
+        size++;
+        area += image.getArea(pixel);
+        sumL += image.getSumL(pixel);
+        sumA += image.getSumA(pixel);
+        sumB += image.getSumB(pixel);
     }
 
     /**
-     * Returns whether this segment contains given pixel, if pixel is not null
+     * Adds a pair of neighbors where pixel is in this segment and its neighbor number neighbor is not
+     */
+    public void addBoundary(int pixel, int neighbor) {
+        boundaryLength += image.getBoundaryLength(pixel, neighbor);
+        // Each distance is truncated, as the edge value has always been summed as an int
+        boundaryContrast += image.getBoundaryContrast(pixel, neighbor);
+    }
+
+    /**
+     * Adds all pixels of other to this segment. The boundary between them is no longer a boundary, and is
+     * removed once from each side. Runs in constant time, but leaves the deviation to be computed.
+     *
+     * @param other segment to merge into this one
+     * @param sharedBoundaryLength number of neighbor pairs between the two segments, counted from one side
+     * @param sharedBoundaryContrast summed distance of those pairs
+     */
+    public void merge(Segment other, int sharedBoundaryLength, long sharedBoundaryContrast) {
+        size += other.size;
+        area += other.area;
+        sumL += other.sumL;
+        sumA += other.sumA;
+        sumB += other.sumB;
+        boundaryLength += other.boundaryLength - 2 * sharedBoundaryLength;
+        boundaryContrast += other.boundaryContrast - 2 * sharedBoundaryContrast;
+        deviation = Double.NaN;
+    }
+
+    /**
+     * Returns whether this segment contains given pixel, if pixel is inside the image
      *
-     * @param pixel pixel to look for in segment
+     * @param pixel genotype index of pixel to look for in segment, -1 if outside the image
      * @return boolean, true if pixel is in segment
      */
-    public boolean containsPixel(Pixel pixel) {
-        if (pixel == null) {
+    public boolean containsPixel(int pixel) {
+        if (pixel < 0) {
             return false;
         } else {
-            return pixels.contains(pixel);
+            return individual.getLabel(pixel) == label;
         }
     }
 
-    public void addPixels(Set<Pixel> pixels) {
-        this.pixels.addAll(pixels);
+    public CieLab getCentroid() {
+        return new CieLab((float) (sumL / area), (float) (sumA / area), (float) (sumB / area));
     }
 
-    public void updateCentroid() {
-        float l = 0;
-        float a = 0;
-        float b = 0;
-        for (Pixel p : this.pixels) {
-            l += p.color.l;
-            a += p.color.a;
-            b += p.color.b;
-        }
-        centroid = new CieLab(l / size, a / size, b / size);
+    public double getEdgeValue() {
+        // Negative so it should be minimized, see computeEdgeValue
+        return -boundaryContrast;
+    }
+
+    public double getConnectivity() {
+        return 0.125 * boundaryLength;
+    }
+
+    public double getDeviation() {
+        return deviation;
+    }
+
+    public void setDeviation(double deviation) {
+        this.deviation = deviation;
+    }
+
+    public boolean hasDeviation() {
+        return !Double.isNaN(deviation);
     }
 
     public double computeEdgeValue() {
         // src.Segment edge "contrast". Difference between neighboring colors on opposing sides of the edge
         // This objective should be maximized. Negative is returned so it should be minimized instead
         int edgeValue = 0;
-        for (Pixel pixel : this.pixels) {
-            Collection<Pixel> neighbours = pixel.getNeighbors().values();
-            for (Pixel neighbour : neighbours) {
-                if (!this.containsPixel(neighbour)) { // If pixels are not in the same src.Segment
-                    edgeValue += CieLab.computeDistance(pixel.color, neighbour.color);
+        for (int p : getPixels()) {
+            for (int n = 1; n <= 8; n++) {
+                int neighbour = image.getNeighbor(p, n);
+                if (neighbour >= 0 && !this.containsPixel(neighbour)) { // If pixels are not in the same src.Segment
+                    edgeValue += image.getBoundaryContrast(p, n);
                 }
             }
         }
@@ -74,10 +149,11 @@ public class Segment {
         // Penalize segments with weirdly shaped edges.
         // This objective should be minimized
         double connectivity = 0;
-        for (Pixel pixel : this.pixels) {
-            for (Pixel neighbor : pixel.getNeighbors().values()) {
-                if (!this.containsPixel(neighbor)) {
-                    connectivity += 0.125;  // TODO: test 1/F where F is neighbor-number of pixel
+        for (int p : getPixels()) {
+            for (int n = 1; n <= 8; n++) {
+                int neighbor = image.getNeighbor(p, n);
+                if (neighbor >= 0 && !this.containsPixel(neighbor)) {
+                    connectivity += 0.125 * image.getBoundaryLength(p, n);  // TODO: test 1/F where F is neighbor-number of pixel
                 }
             }
         }
@@ -85,36 +161,70 @@ public class Segment {
     }
 
     public double computeDeviation() {
+        int[] pixels = getPixels();
+        return computeDeviation(pixels, 0, pixels.length);
+    }
+
+    /**
+     * @param pixels array holding the pixels of this segment from index from until index to
+     */
+    public double computeDeviation(int[] pixels, int from, int to) {
         // src.Segment color deviation from centroid
         // This objective should be minimized
-        return pixels.stream()
-                .map(pixel -> CieLab.computeDistance(pixel.color, this.centroid))
-                .reduce(0.0, Double::sum);
+        CieLab centroid = getCentroid();
+        double deviation = 0;
+        for (int i = from; i < to; i++) {
+            deviation += image.computeDeviation(pixels[i], centroid);
+        }
+        return deviation;
     }
 
     /**
      * Checks whether pixel is at the edge of segment
      *
-     * @param pixel to check if is at edge (MUST BE IN THIS SEGMENT)
+     * @param pixel genotype index of pixel to check if is at edge (MUST BE IN THIS SEGMENT)
      * @return true if pixel is in segment, false if not.
      */
-    public boolean isPixelAtEdge(Pixel pixel) {
-        if (pixel.x == 0 ||
-                pixel.x == getIndividual().getImage().getWidth() - 1 ||
-                pixel.y == 0 ||
-                pixel.y == getIndividual().getImage().getHeight() - 1) {
+    public boolean isPixelAtEdge(int pixel) {
+        int x = image.getX(pixel);
+        int y = image.getY(pixel);
+        if (x == 0 ||
+                x == image.getWidth() - 1 ||
+                y == 0 ||
+                y == image.getHeight() - 1) {
             return true;
         }
-        return !(this.containsPixel(pixel.getNeighborByGene(Gene.DOWN))
-                && this.containsPixel(pixel.getNeighborByGene(Gene.RIGHT)));
+        return !(this.containsPixel(image.getNeighborByGene(pixel, Gene.DOWN))
+                && this.containsPixel(image.getNeighborByGene(pixel, Gene.RIGHT)));
     }
 
     public Individual getIndividual() {
         return individual;
     }
 
-    public Set<Pixel> getPixels() {
-        return pixels;
+    public int getLabel() {
+        return label;
     }
-}
 
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * @return genotype indices of the pixels in this segment, found by following the genes from the root
+     */
+    public int[] getPixels() {
+        return individual.getSegmentPixels(this);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return number of image pixels in this segment, the same as getSize unless the image is a superpixel grid
+     */
+    public int getArea() {
+        return area;
+    }
+}
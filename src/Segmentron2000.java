@@ -6,25 +6,84 @@ import src.Individual;
 import src.Params;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
 
 public class Segmentron2000 {
 
-    private static ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(Params.threadPoolSize);
-    public static void main(String[] args) {
-        run();
+    private static ExecutorService executor = Executors.newFixedThreadPool(Params.threadPoolSize);
+    // Shared by all images, so PNG encoding of one image overlaps with the GA of the next
+    private static final ImageWriterQueue imageWriter = new ImageWriterQueue(Params.imageWriterThreads,
+            Params.imageWriterQueueSize);
+    /**
+     * @param args GA parameters overriding Params, as name=value pairs or properties files, see GAConfig.parse
+     */
+    public static void main(String[] args) throws IOException {
+        run(GAConfig.parse(args));
     }
 
-    private static void run(){
+    private static void run(GAConfig config){
+        if (Params.useTiles) {
+            runTiled(config);
+            return;
+        }
+        final ImageHandler img;
+        try {
+            img = new ImageHandler(Params.imageName);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        segmentImage(img, executor, config);
+        executor.shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * Segments Params.imageName tile by tile, for images too large to segment whole
+     */
+    private static void runTiled(GAConfig config) {
+        try {
+            TiledSegmentation tiled = new TiledSegmentation(Params.imageName,
+                    ImageHandler.trainImageFile(Params.imageName), config);
+            tiled.run();
+            tiled.save();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        executor.shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * Segments one image with the Params defaults, see segmentImage(ImageHandler, ExecutorService, GAConfig)
+     */
+    static List<List<Individual>> segmentImage(ImageHandler image, ExecutorService workers) {
+        return segmentImage(image, workers, GAConfig.defaults());
+    }
+
+    /**
+     * Segments one image and saves the best pareto-front in Params.outputDirectory, under the name of the image
+     *
+     * @param image image to segment
+     * @param workers executor producing individuals and saving images, may be shared by several images
+     * @param config parameters of the GA
+     * @return pareto-fronts of the final population, best first. Empty when Params.useSimpleGA is set
+     */
+    static List<List<Individual>> segmentImage(ImageHandler image, ExecutorService workers, GAConfig config) {
+        // Individuals of a superpixel grid are saved as pixel segmentations, see ImageHandler.save
+        ImageHandler img = Params.useSuperpixels ? image.createSuperpixelGrid(Params.superpixelSize) : image;
         // Set up paths and directories
-        Path pathType1 = Path.of(Params.outputDirectory, Params.imageName, "type1");
-        Path pathType2 = Path.of(Params.outputDirectory, Params.imageName, "type2");
-        Path pathType3 = Path.of(Params.outputDirectory, Params.imageName, "type3");
+        Path pathType1 = Path.of(Params.outputDirectory, img.getName(), "type1");
+        Path pathType2 = Path.of(Params.outputDirectory, img.getName(), "type2");
+        Path pathType3 = Path.of(Params.outputDirectory, img.getName(), "type3");
         try {
             if (!pathType1.toFile().exists()) {
                 Files.createDirectories(pathType1.getParent());
@@ -39,8 +98,7 @@ public class Segmentron2000 {
                 Files.createDirectory(pathType3);
             }
         } catch(IOException e) {
-            e.printStackTrace();
-            System.exit(0);
+            throw new UncheckedIOException(e);
         }
 
         if (Params.deleteOldFiles) {
@@ -49,50 +107,113 @@ public class Segmentron2000 {
             ImageHandler.deleteAllFilesInDir(pathType3);
         }
 
-        final ImageHandler img;
-        try {
-            img = new ImageHandler(Params.imageName);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        List<GenerationListener> listeners = new ArrayList<>();
+        if (Params.printGenerations) {
+            listeners.add(new ConsoleListener());
+        }
+        MetricsWriter metricsWriter = null;
+        if (!Params.metricsFileName.isEmpty()) {
+            try {
+                metricsWriter = new MetricsWriter(Path.of(Params.outputDirectory, img.getName(),
+                        Params.metricsFileName));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            listeners.add(metricsWriter);
         }
-        GenAlg ga = new GenAlg(img);
         List<Individual> best;
+        List<List<Individual>> rankedPopulation = List.of();
         if (Params.useSimpleGA) { // Not used, other alternative does better
+            GenAlg ga = createGA(img, workers, config, listeners);
             ga.runGA();
             List<Individual> final_pop = ga.getPop();
             final_pop.sort(Comparator.comparingDouble(Individual::computeCombinedFitness));
             best = final_pop.subList(0, 5);
+        } else if (Params.useIslands) {
+            IslandModel islands = new IslandModel(img, config);
+            islands.run();
+            rankedPopulation = islands.getRankedPopulation();
+            best = rankedPopulation.get(0); // Merged pareto-front of all islands
+        } else if (Params.usePyramid) {
+            PyramidGA pyramid = new PyramidGA(img, workers, config);
+            listeners.forEach(pyramid::addListener);
+            pyramid.run();
+            rankedPopulation = pyramid.getFinestGA().rankPopulation(pyramid.getPop());
+            best = rankedPopulation.get(0);
         } else {
+            GenAlg ga = createGA(img, workers, config, listeners);
             ga.runGA2();
-            best = ga.rankPopulation(ga.getPop()).get(0); // best is the pareto-front. ie. the tied first place
-
+            rankedPopulation = ga.rankPopulation(ga.getPop());
+            best = rankedPopulation.get(0); // best is the pareto-front. ie. the tied first place
+        }
+        if (metricsWriter != null) {
+            metricsWriter.close();
         }
         System.out.println("Merging and saving images");
+        List<CompletableFuture<Void>> saved = new ArrayList<>();
         for (int i=0; i<best.size(); i++) {
             Individual individual = best.get(i);
             int finalI = i;
-            executor.execute(()-> {
+            saved.add(CompletableFuture.runAsync(()-> {
                 if (Params.mergeSmallSegments){
                     individual.mergeSmallSegments();
                 }
-                img.save(individual, 1, finalI);
-                img.save(individual, 2, finalI);
-                img.save(individual, 3, finalI);
-            });
+            }, workers).thenCompose(merged -> img.saveAll(individual, finalI, imageWriter)));
         }
-        executor.shutdown();
-        while (!executor.isTerminated()){
-            ;
+        CompletableFuture.allOf(saved.toArray(new CompletableFuture<?>[0])).join();
+        if (Params.evaluateGroundTruth) {
+            printGroundTruthScores(img, best, workers);
         }
         System.out.println("FINISHED!");
         if (!Params.useSimpleGA) {
-            List<List<Individual>> rankedPopulation = ga.getRankedPopulation();
             System.out.println("Size of pareto fronts:");
             for (List<Individual> individuals : rankedPopulation) {
                 System.out.print(individuals.size() + " ");
             }
             System.out.println("");
         }
-        System.exit(0);
+        return rankedPopulation;
+    }
+
+    /**
+     * Creates the GA of a simple or runGA2 run, islands and pyramid levels create their own
+     */
+    private static GenAlg createGA(ImageHandler img, ExecutorService workers, GAConfig config,
+                                   List<GenerationListener> listeners) {
+        GenAlg ga = new GenAlg(img, workers, config);
+        listeners.forEach(ga::addListener);
+        if (Params.trackGroundTruth) {
+            try {
+                GroundTruthEvaluator evaluator = GroundTruthEvaluator.forTrainImage(img);
+                if (evaluator.getNumGroundTruths() > 0) {
+                    ga.setGroundTruthEvaluator(evaluator);
+                }
+            } catch (IOException e) {
+                System.out.println("No ground truth to track: " + e.getMessage());
+            }
+        }
+        return ga;
+    }
+
+    /**
+     * Prints the score of each saved individual against the ground truth of the image, as evaluator/run.py would
+     */
+    private static void printGroundTruthScores(ImageHandler img, List<Individual> saved, ExecutorService workers) {
+        GroundTruthEvaluator evaluator;
+        try {
+            evaluator = GroundTruthEvaluator.forTrainImage(img);
+        } catch (IOException e) {
+            System.out.println("No ground truth to evaluate: " + e.getMessage());
+            return;
+        }
+        if (evaluator.getNumGroundTruths() == 0) {
+            return;
+        }
+        double[] scores = evaluator.evaluate(saved, workers);
+        System.out.println("Ground truth scores:");
+        for (int i = 0; i < saved.size(); i++) {
+            System.out.printf("%2d: %3d segments %6.2f%%%n", i, saved.get(i).getNumSegments(), 100 * scores[i]);
+        }
+        System.out.printf("Best score: %.2f%%%n", 100 * Arrays.stream(scores).max().orElse(0));
     }
 }
@@ -0,0 +1,12 @@
+package src;
+
+/**
+ * Why runGA2 stopped, see GenAlg.getStopReason
+ */
+public enum StopReason {
+    GENERATIONS, // Ran all numGenerations
+    STAGNATION, // The first front stopped improving, see ConvergenceMonitor
+    TIME_BUDGET, // timeBudgetSeconds of the GAConfig passed
+    EVALUATION_BUDGET, // Another generation would produce more than evaluationBudget individuals of the GAConfig
+    CANCELLED // GenAlg.cancel was called
+}
@@ -0,0 +1,358 @@
+package src;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Segments an image too large to hold as one ImageHandler. The image is split into a grid of Params.tileSize
+ * tiles, each extended by Params.tileOverlap pixels on every side. Each tile is decoded on its own and segmented by
+ * a single threaded GA, and at most Params.tileConcurrency tiles are in progress at once.
+ * The segments of neighboring tiles are joined where they cover the same pixels of their overlap. Each tile is
+ * stitched as soon as it is done: only the strips it shares with neighbors that are not done yet stay on the heap,
+ * and the labels of its core, the pixels no other tile covers, go to a temporary file until save. So the heap used
+ * depends on the tile size rather than the image size, except for the one bit per pixel of the saved image.
+ */
+public class TiledSegmentation {
+    private final String name;
+    private final File file;
+    private final GAConfig config;
+    private final int width, height;
+    private final int tilesX, tilesY;
+    // Id of each tile's first label among the labels of all tiles, in the order tiles were done, and its number of
+    // labels. Labels are below that number, some may be unused after merges.
+    private final int[] firstSegments, numLabels;
+    // Labels in the overlap of a done tile with a neighbor that is not done yet, by tile and neighbor, see stripKey
+    private final Map<Long, Strip> strips = new HashMap<>();
+    private int[] components = new int[64]; // Union-find over the labels of all tiles, see stitch
+    private int numSegments;
+    private Path coreFile; // Core labels of each tile by genotype index, from the first tile until save
+    private FileChannel cores;
+
+    /**
+     * @param name name used for the output directory of this image
+     * @param file image file, only read a tile at a time
+     * @param config parameters of the GA of every tile, each tile is seeded from its seed
+     */
+    public TiledSegmentation(String name, File file, GAConfig config) throws IOException {
+        this.name = name;
+        this.file = file;
+        this.config = config;
+        Dimension size = ImageHandler.readImageSize(file);
+        this.width = size.width;
+        this.height = size.height;
+        this.tilesX = (width + Params.tileSize - 1) / Params.tileSize;
+        this.tilesY = (height + Params.tileSize - 1) / Params.tileSize;
+        this.firstSegments = new int[tilesX * tilesY];
+        this.numLabels = new int[tilesX * tilesY];
+    }
+
+    /**
+     * Segments and stitches all tiles
+     */
+    public void run() {
+        long startTime = System.nanoTime();
+        long seed = config.newSeed();
+        Path directory = getOutputDirectory();
+        try {
+            Files.createDirectories(directory);
+            coreFile = Files.createTempFile(directory, "cores", ".bin");
+            coreFile.toFile().deleteOnExit();
+            cores = FileChannel.open(coreFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Params.tileConcurrency);
+        List<CompletableFuture<Void>> segmented = new ArrayList<>();
+        for (int i = 0; i < getNumTiles(); i++) {
+            int index = i;
+            segmented.add(CompletableFuture.runAsync(() -> segmentTile(index, seed), executor));
+        }
+        CompletableFuture.allOf(segmented.toArray(new CompletableFuture<?>[0])).join();
+        executor.shutdown();
+        // Point every segment directly at its root, so looking up a pixel's segment takes constant time
+        for (int i = 0; i < numSegments; i++) {
+            components[i] = findComponent(i);
+        }
+        System.out.printf("Segmented %d tiles of %dx%d image in %.1f s%n", getNumTiles(), width, height,
+                (System.nanoTime() - startTime) / 1e9);
+    }
+
+    private void segmentTile(int index, long seed) {
+        Rectangle bounds = getBounds(index);
+        ImageHandler image;
+        try {
+            // Its own name gives each tile GA its own checkpoint, in a subdirectory of the image's output directory
+            image = new ImageHandler(name + "/tile_" + index, ImageHandler.readImageRegion(file, bounds));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        GenAlg ga = new GenAlg(image, Runnable::run, config, new SplittableRandom(seed + index).nextLong());
+        ga.runGA2();
+        // A tile contributes one segmentation, the best of its pareto-front by the combined fitness
+        Individual best = ga.rankPopulation(ga.getPop()).get(0).stream()
+                .min(Comparator.comparingDouble(Individual::computeCombinedFitness))
+                .orElseThrow();
+        System.out.printf("Tile %d/%d at (%d, %d): %d segments%n", index + 1, getNumTiles(), bounds.x, bounds.y,
+                best.getNumSegments());
+        int[] labels = best.getLabels();
+        writeCore(index, bounds, labels);
+        stitch(index, bounds, labels);
+    }
+
+    /**
+     * @return pixels of the image covered by a tile, including its overlap
+     */
+    private Rectangle getBounds(int index) {
+        Rectangle core = getCore(index);
+        int x = Math.max(core.x - Params.tileOverlap, 0);
+        int y = Math.max(core.y - Params.tileOverlap, 0);
+        return new Rectangle(x, y, Math.min(core.x + core.width + Params.tileOverlap, width) - x,
+                Math.min(core.y + core.height + Params.tileOverlap, height) - y);
+    }
+
+    /**
+     * @return pixels of the image covered by a tile, excluding its overlap
+     */
+    private Rectangle getCore(int index) {
+        int x = index % tilesX * Params.tileSize;
+        int y = index / tilesX * Params.tileSize;
+        return new Rectangle(x, y, Math.min(Params.tileSize, width - x), Math.min(Params.tileSize, height - y));
+    }
+
+    /**
+     * @return position of the core labels of a tile in the core file. Cores of a row of tiles all have the same
+     * height, so the cores of all rows above and of the tiles to the left in the same row come first.
+     */
+    private long getCorePosition(int index) {
+        Rectangle core = getCore(index);
+        return 4 * ((long) core.y * width + (long) core.x * core.height);
+    }
+
+    /**
+     * Writes the labels of the core of a tile to the core file, safe to call from any thread
+     */
+    private void writeCore(int index, Rectangle bounds, int[] labels) {
+        Rectangle core = getCore(index);
+        ByteBuffer buffer = ByteBuffer.allocate(4 * core.width * core.height);
+        for (int x = core.x; x < core.x + core.width; x++) {
+            for (int y = core.y; y < core.y + core.height; y++) {
+                buffer.putInt(labels[GenAlg.coordsToGenotypeIndex(x - bounds.x, y - bounds.y, bounds.height)]);
+            }
+        }
+        buffer.flip();
+        long position = getCorePosition(index);
+        try {
+            while (buffer.hasRemaining()) {
+                position += cores.write(buffer, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int[] readCore(int index) {
+        Rectangle core = getCore(index);
+        ByteBuffer buffer = ByteBuffer.allocate(4 * core.width * core.height);
+        long position = getCorePosition(index);
+        try {
+            while (buffer.hasRemaining()) {
+                int read = cores.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    throw new IOException("Core file ends before the core of tile " + index);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        int[] labels = new int[core.width * core.height];
+        buffer.asIntBuffer().get(labels);
+        return labels;
+    }
+
+    /**
+     * Gives the labels of a done tile their segment ids, and joins them with the segments of its neighbors that are
+     * already done. For each neighbor that is not done yet, the labels of their overlap are kept until it is.
+     * In the overlap of two tiles, a segment is joined with the segment of the other tile covering most of its
+     * overlap pixels, if that is more than half of them. The result does not depend on the order tiles are done in.
+     */
+    private synchronized void stitch(int index, Rectangle bounds, int[] labels) {
+        numLabels[index] = Arrays.stream(labels).max().orElse(-1) + 1;
+        firstSegments[index] = numSegments;
+        numSegments += numLabels[index];
+        if (numSegments > components.length) {
+            components = Arrays.copyOf(components, Math.max(numSegments, 2 * components.length));
+        }
+        for (int i = firstSegments[index]; i < numSegments; i++) {
+            components[i] = i;
+        }
+        int tileX = index % tilesX;
+        int tileY = index / tilesX;
+        List<Integer> neighbors = new ArrayList<>();
+        if (tileX > 0) {
+            neighbors.add(index - 1);
+        }
+        if (tileX + 1 < tilesX) {
+            neighbors.add(index + 1);
+        }
+        if (tileY > 0) {
+            neighbors.add(index - tilesX);
+        }
+        if (tileY + 1 < tilesY) {
+            neighbors.add(index + tilesX);
+        }
+        for (int neighbor : neighbors) {
+            Strip strip = new Strip(index, bounds.intersection(getBounds(neighbor)), bounds, labels);
+            Strip other = strips.remove(stripKey(neighbor, index));
+            if (other == null) {
+                strips.put(stripKey(index, neighbor), strip);
+            } else if (neighbor < index) { // The tile to the left or above comes first, as in a full stitch
+                stitch(other, strip);
+            } else {
+                stitch(strip, other);
+            }
+        }
+    }
+
+    private static long stripKey(int tile, int neighbor) {
+        return (long) tile << 32 | neighbor;
+    }
+
+    private void stitch(Strip first, Strip second) {
+        // Number of overlap pixels of each pair of segments, keyed by both segment ids
+        Map<Long, Integer> pairCounts = new HashMap<>();
+        int[] firstCounts = new int[numLabels[first.tile]];
+        int[] secondCounts = new int[numLabels[second.tile]];
+        for (int i = 0; i < first.labels.length; i++) {
+            int firstLabel = first.labels[i];
+            int secondLabel = second.labels[i];
+            firstCounts[firstLabel]++;
+            secondCounts[secondLabel]++;
+            pairCounts.merge((long) firstLabel << 32 | secondLabel, 1, Integer::sum);
+        }
+        for (Map.Entry<Long, Integer> pair : pairCounts.entrySet()) {
+            int firstLabel = (int) (pair.getKey() >>> 32);
+            int secondLabel = (int) (long) pair.getKey();
+            int count = pair.getValue();
+            if (2 * count > firstCounts[firstLabel] || 2 * count > secondCounts[secondLabel]) {
+                union(firstSegments[first.tile] + firstLabel, firstSegments[second.tile] + secondLabel);
+            }
+        }
+    }
+
+    private void union(int first, int second) {
+        int rootFirst = findComponent(first);
+        int rootSecond = findComponent(second);
+        if (rootFirst != rootSecond) {
+            components[Math.max(rootFirst, rootSecond)] = Math.min(rootFirst, rootSecond);
+        }
+    }
+
+    private int findComponent(int segment) {
+        while (components[segment] != segment) {
+            components[segment] = components[components[segment]]; // Path halving
+            segment = components[segment];
+        }
+        return segment;
+    }
+
+    /**
+     * Saves the stitched segmentation as black segment boundaries on white, like ImageHandler.save type 2, then
+     * deletes the core file. Uses one bit per pixel, and reads the core labels of at most three tiles at a time.
+     * Must be called after run.
+     */
+    public void save() {
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+        int white = 0xFFFFFF;
+        for (int tileY = 0; tileY < tilesY; tileY++) {
+            int[] right = null;
+            for (int tileX = 0; tileX < tilesX; tileX++) {
+                int index = tileY * tilesX + tileX;
+                Rectangle core = getCore(index);
+                int[] labels = right != null ? right : readCore(index);
+                right = tileX + 1 < tilesX ? readCore(index + 1) : null;
+                int[] below = tileY + 1 < tilesY ? readCore(index + tilesX) : null;
+                for (int x = core.x; x < core.x + core.width; x++) {
+                    for (int y = core.y; y < core.y + core.height; y++) {
+                        int i = GenAlg.coordsToGenotypeIndex(x - core.x, y - core.y, core.height);
+                        if (x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+                            continue;
+                        }
+                        int segment = getSegment(index, labels[i]);
+                        // The right neighbor of the last column is the first of the next core, which has the same
+                        // height, and the lower neighbor of the last row is the first of the core below
+                        int rightSegment = x + 1 < core.x + core.width ? getSegment(index, labels[i + core.height])
+                                : getSegment(index + 1, right[y - core.y]);
+                        int lowerSegment = y + 1 < core.y + core.height ? getSegment(index, labels[i + 1])
+                                : getSegment(index + tilesX, below[GenAlg.coordsToGenotypeIndex(x - core.x, 0,
+                                getCore(index + tilesX).height)]);
+                        if (segment == rightSegment && segment == lowerSegment) {
+                            output.setRGB(x, y, white);
+                        }
+                    }
+                }
+            }
+        }
+        Path directory = getOutputDirectory();
+        try {
+            ImageWriterQueue.writePng(output, directory.resolve("t2_tiled.png").toFile());
+            cores.close();
+            Files.deleteIfExists(coreFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return stitched segment id of a label of a tile
+     */
+    private int getSegment(int tile, int label) {
+        return components[firstSegments[tile] + label];
+    }
+
+    private Path getOutputDirectory() {
+        return Path.of(Params.outputDirectory, name, "tiled");
+    }
+
+    public int getNumTiles() {
+        return tilesX * tilesY;
+    }
+
+    /**
+     * Labels of a done tile in its overlap with a neighbor, kept until the neighbor is done
+     */
+    private static class Strip {
+        private final int tile;
+        private final int[] labels; // Label of each pixel of the overlap by genotype index
+
+        private Strip(int tile, Rectangle overlap, Rectangle bounds, int[] tileLabels) {
+            this.tile = tile;
+            this.labels = new int[overlap.width * overlap.height];
+            for (int x = overlap.x; x < overlap.x + overlap.width; x++) {
+                for (int y = overlap.y; y < overlap.y + overlap.height; y++) {
+                    labels[GenAlg.coordsToGenotypeIndex(x - overlap.x, y - overlap.y, overlap.height)] =
+                            tileLabels[GenAlg.coordsToGenotypeIndex(x - bounds.x, y - bounds.y, bounds.height)];
+                }
+            }
+        }
+    }
+}